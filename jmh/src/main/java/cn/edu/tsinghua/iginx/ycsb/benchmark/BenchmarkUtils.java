@@ -0,0 +1,45 @@
+package cn.edu.tsinghua.iginx.ycsb.benchmark;
+
+import site.ycsb.ByteArrayByteIterator;
+import site.ycsb.ByteIterator;
+import site.ycsb.workloads.CoreWorkload;
+
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.Random;
+
+public class BenchmarkUtils {
+
+  public static final String TABLE = CoreWorkload.TABLENAME_PROPERTY_DEFAULT;
+
+  public static final String FIELD_NAME_PREFIX = CoreWorkload.FIELD_NAME_PREFIX_DEFAULT;
+
+  public static String getKey(long timestamp) {
+    return "user" + timestamp;
+  }
+
+  public static Properties getProperties(int fieldCount) {
+    Properties properties = new Properties();
+    properties.setProperty(CoreWorkload.FIELD_COUNT_PROPERTY, Integer.toString(fieldCount));
+    return properties;
+  }
+
+  public static byte[][] getValues(int fieldCount, int fieldLength, long seed) {
+    Random random = new Random(seed);
+    byte[][] values = new byte[fieldCount][fieldLength];
+    for (byte[] value : values) {
+      for (int i = 0; i < value.length; i++) {
+        value[i] = (byte) (' ' + random.nextInt(95));
+      }
+    }
+    return values;
+  }
+
+  public static HashMap<String, ByteIterator> getRecord(byte[][] values) {
+    HashMap<String, ByteIterator> record = new HashMap<>();
+    for (int i = 0; i < values.length; i++) {
+      record.put(FIELD_NAME_PREFIX + i, new ByteArrayByteIterator(values[i]));
+    }
+    return record;
+  }
+}
@@ -0,0 +1,54 @@
+package cn.edu.tsinghua.iginx.ycsb.benchmark;
+
+import cn.edu.tsinghua.iginx.ycsb.CoreUtils;
+import cn.edu.tsinghua.iginx.ycsb.KeyCodec;
+import cn.edu.tsinghua.iginx.ycsb.OrderedKeyCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoreUtilsBenchmark {
+
+  private final String[] keys = new String[1024];
+
+  private KeyCodec orderedCodec;
+
+  private int next = 0;
+
+  @Setup
+  public void setup() {
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = BenchmarkUtils.getKey(Math.abs((long) i * 0x9E3779B97F4A7C15L));
+    }
+    orderedCodec = OrderedKeyCodec.of(KeyCodec.PREFIX_PROPERTY_DEFAULT, Arrays.asList(keys));
+  }
+
+  @Benchmark
+  public long getTimestamp() {
+    next = (next + 1) & (keys.length - 1);
+    return CoreUtils.getTimestamp(keys[next]);
+  }
+
+  @Benchmark
+  public long encodeOrdered() {
+    next = (next + 1) & (keys.length - 1);
+    return orderedCodec.encode(keys[next]);
+  }
+
+  @Benchmark
+  public String getFieldName() {
+    return CoreUtils.getFieldName("usertable.field7");
+  }
+
+  @Benchmark
+  public int getFieldIndex() {
+    return CoreUtils.getFieldIndex("field7", BenchmarkUtils.FIELD_NAME_PREFIX, 10);
+  }
+}
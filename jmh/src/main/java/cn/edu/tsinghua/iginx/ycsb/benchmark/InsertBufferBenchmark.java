@@ -0,0 +1,67 @@
+package cn.edu.tsinghua.iginx.ycsb.benchmark;
+
+import cn.edu.tsinghua.iginx.ycsb.CoreUtils;
+import cn.edu.tsinghua.iginx.ycsb.InsertBuffer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fills an IGinX insert buffer up to {@code iginx.buffersize} points and packs it for one insert RPC.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InsertBufferBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  public int bufferSize;
+
+  @Param({"1", "10", "100"})
+  public int fieldCount;
+
+  @Param({"true", "false"})
+  public boolean insertByColumn;
+
+  private InsertBuffer buffer;
+
+  private String[] keys;
+
+  private String[] fieldNames;
+
+  private byte[][] values;
+
+  @Setup
+  public void setup() {
+    int rows = Math.max(1, bufferSize / fieldCount);
+    buffer = new InsertBuffer(fieldCount, rows, bufferSize);
+    keys = new String[rows];
+    for (int i = 0; i < rows; i++) {
+      keys[i] = BenchmarkUtils.getKey(Math.abs((long) i * 0x9E3779B97F4A7C15L));
+    }
+    fieldNames = new String[fieldCount];
+    for (int i = 0; i < fieldCount; i++) {
+      fieldNames[i] = BenchmarkUtils.FIELD_NAME_PREFIX + i;
+    }
+    values = BenchmarkUtils.getValues(fieldCount, 100, 0);
+  }
+
+  @Benchmark
+  public void fillAndPack(Blackhole blackhole) {
+    for (String key : keys) {
+      int row = buffer.row(CoreUtils.getTimestamp(key));
+      for (int i = 0; i < fieldNames.length; i++) {
+        int field = CoreUtils.getFieldIndex(fieldNames[i], BenchmarkUtils.FIELD_NAME_PREFIX, fieldCount);
+        buffer.set(row, field, values[i]);
+      }
+    }
+    int[] fields = buffer.nonEmptyFields();
+    blackhole.consume(buffer.keys());
+    blackhole.consume(insertByColumn ? buffer.toColumns(fields) : buffer.toRows(fields));
+    buffer.clear();
+  }
+}
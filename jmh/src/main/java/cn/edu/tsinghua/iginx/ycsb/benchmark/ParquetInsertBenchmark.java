@@ -0,0 +1,72 @@
+package cn.edu.tsinghua.iginx.ycsb.benchmark;
+
+import cn.edu.tsinghua.iginx.ycsb.Parquet;
+import org.openjdk.jmh.annotations.*;
+import site.ycsb.DBException;
+import site.ycsb.Status;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inserts rows into the in-heap write buffer of the Parquet binding. The rows of each iteration are dumped into a
+ * temporary directory, and deleted, when the binding is cleaned up after it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParquetInsertBenchmark {
+
+  @Param({"1", "10", "100"})
+  public int fieldCount;
+
+  private Path dir;
+
+  private Parquet db;
+
+  private byte[][] values;
+
+  private long next;
+
+  @Setup(Level.Trial)
+  public void createDirectory() throws IOException {
+    dir = Files.createTempDirectory("ycsb-jmh-");
+  }
+
+  @Setup(Level.Iteration)
+  public void setup() throws DBException {
+    Properties properties = BenchmarkUtils.getProperties(fieldCount);
+    properties.setProperty(Parquet.DUMP_FILE_PATH, dir.resolve("dump.parquet").toString());
+    db = new Parquet();
+    db.setProperties(properties);
+    db.init();
+    values = BenchmarkUtils.getValues(fieldCount, 100, 0);
+    next = 0;
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() throws DBException, IOException {
+    db.cleanup();
+    try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+      for (Path path : (Iterable<Path>) files::iterator) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void deleteDirectory() throws IOException {
+    Files.delete(dir);
+  }
+
+  @Benchmark
+  public Status insert() {
+    return db.insert(BenchmarkUtils.TABLE, BenchmarkUtils.getKey(next++), BenchmarkUtils.getRecord(values));
+  }
+}
@@ -0,0 +1,112 @@
+package cn.edu.tsinghua.iginx.ycsb.benchmark;
+
+import cn.edu.tsinghua.iginx.ycsb.ArrowParquet;
+import cn.edu.tsinghua.iginx.ycsb.DuckdbParquet;
+import cn.edu.tsinghua.iginx.ycsb.Parquet;
+import org.openjdk.jmh.annotations.*;
+import site.ycsb.ByteIterator;
+import site.ycsb.DBException;
+import site.ycsb.Status;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scans a generated local Parquet file through each of the Parquet-backed bindings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanDecodeBenchmark {
+
+  @Param({"parquet", "parquet-indexed", "arrow-parquet", "duckdb-parquet"})
+  public String binding;
+
+  @Param({"1", "100"})
+  public int scanLength;
+
+  @Param({"100000"})
+  public int recordCount;
+
+  @Param({"10"})
+  public int fieldCount;
+
+  private Path dir;
+
+  private Parquet db;
+
+  private Random random;
+
+  @Setup(Level.Trial)
+  public void setup() throws DBException, IOException {
+    dir = Files.createTempDirectory("ycsb-jmh-");
+    Path file = dir.resolve("dump.parquet");
+
+    Properties properties = BenchmarkUtils.getProperties(fieldCount);
+    properties.setProperty(Parquet.DUMP_FILE_PATH, file.toString());
+    properties.setProperty(Parquet.READ_FILE_PATH, file.toString());
+
+    Parquet loader = new Parquet();
+    loader.setProperties(properties);
+    loader.init();
+    for (int i = 0; i < recordCount; i++) {
+      byte[][] values = BenchmarkUtils.getValues(fieldCount, 100, i);
+      loader.insert(BenchmarkUtils.TABLE, BenchmarkUtils.getKey(i), BenchmarkUtils.getRecord(values));
+    }
+    loader.cleanup();
+
+    // readers must not overwrite the generated file when they are cleaned up
+    properties.setProperty(Parquet.DUMP_FILE_PATH, dir.resolve("empty.parquet").toString());
+    switch (binding) {
+      case "parquet":
+        db = new Parquet();
+        break;
+      case "parquet-indexed":
+        properties.setProperty(Parquet.READ_INDEXED, "true");
+        db = new Parquet();
+        break;
+      case "arrow-parquet":
+        db = new ArrowParquet();
+        break;
+      case "duckdb-parquet":
+        db = new DuckdbParquet();
+        break;
+      default:
+        throw new IllegalArgumentException("unknown binding: " + binding);
+    }
+    db.setProperties(properties);
+    db.init();
+    random = new Random(0);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws DBException, IOException {
+    db.cleanup();
+    try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+      for (Path path : (Iterable<Path>) files::iterator) {
+        Files.delete(path);
+      }
+    }
+    Files.delete(dir);
+  }
+
+  @Benchmark
+  public Vector<HashMap<String, ByteIterator>> scan() {
+    long start = random.nextInt(recordCount - scanLength);
+    Vector<HashMap<String, ByteIterator>> result = new Vector<>(scanLength);
+    Status status = db.scan(BenchmarkUtils.TABLE, BenchmarkUtils.getKey(start), scanLength, null, result);
+    if (!status.isOk()) {
+      throw new IllegalStateException("failed to scan: " + status.getName());
+    }
+    return result;
+  }
+}
@@ -0,0 +1,80 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AIMD controller of the number of points after which the insert buffer is flushed. Every insert request that
+ * completes within the target latency grows the threshold by a fixed step, and every slower one halves it, within a
+ * minimum and a maximum. The threshold is logged periodically along with the latency and throughput of the requests
+ * since the last log.
+ */
+public class AdaptiveBatchSize {
+
+  private static final Logger logger = LoggerFactory.getLogger(AdaptiveBatchSize.class);
+
+  private static final long LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  private final int min;
+
+  private final int max;
+
+  private final int step;
+
+  private final long targetNanos;
+
+  private volatile int threshold;
+
+  private long requests = 0;
+
+  private long points = 0;
+
+  private long nanos = 0;
+
+  private long lastLogNanos = System.nanoTime();
+
+  public AdaptiveBatchSize(int initial, int min, int max, int step, long targetNanos) {
+    if (min < 1 || max < min || step < 1 || targetNanos <= 0) {
+      throw new IllegalArgumentException(String.format("invalid bounds [%d, %d], step %d or target %d ns", min, max, step, targetNanos));
+    }
+    this.min = min;
+    this.max = max;
+    this.step = step;
+    this.targetNanos = targetNanos;
+    this.threshold = Math.max(min, Math.min(max, initial));
+  }
+
+  public int getThreshold() {
+    return threshold;
+  }
+
+  public int getMax() {
+    return max;
+  }
+
+  /**
+   * Adjusts the threshold by the latency of an insert request of the given number of points.
+   */
+  public synchronized void record(int requestPoints, long requestNanos) {
+    if (requestNanos > targetNanos) {
+      threshold = Math.max(min, threshold / 2);
+    } else {
+      threshold = (int) Math.min(max, (long) threshold + step);
+    }
+    requests++;
+    points += requestPoints;
+    nanos += requestNanos;
+    long now = System.nanoTime();
+    if (now - lastLogNanos >= LOG_INTERVAL_NANOS) {
+      logger.info("insert threshold {} points, {} requests of {} points in {} us on average, {} points/s",
+          threshold, requests, points / requests, TimeUnit.NANOSECONDS.toMicros(nanos / requests),
+          points * TimeUnit.SECONDS.toNanos(1) / (now - lastLogNanos));
+      requests = 0;
+      points = 0;
+      nanos = 0;
+      lastLogNanos = now;
+    }
+  }
+}
@@ -0,0 +1,400 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+import cn.edu.tsinghua.iginx.parquet.db.lsm.api.Scanner;
+import cn.edu.tsinghua.iginx.parquet.db.lsm.table.DataBuffer;
+import cn.edu.tsinghua.iginx.parquet.shared.Constants;
+import cn.edu.tsinghua.iginx.parquet.shared.exception.StorageException;
+import com.google.common.collect.Range;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.VarBinaryVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowFileReader;
+import org.apache.arrow.vector.ipc.ArrowFileWriter;
+import org.apache.arrow.vector.ipc.message.ArrowBlock;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import site.ycsb.ByteIterator;
+import site.ycsb.DBException;
+import site.ycsb.Status;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.Vector;
+
+/**
+ * Binding over an Arrow IPC (Feather v2) file instead of Parquet. The load is dumped into record batches sorted by key,
+ * with the key range of every batch in the file footer. Reads map the file into memory and load only the batches
+ * overlapping the requested range, so the latency holds no Parquet decoding, only I/O and a copy out of the page cache.
+ */
+public class ArrowIpc extends Parquet {
+
+  public static final String IPC_BATCH_ROWS = "parquet.ipc.batch_rows";
+  public static final String IPC_BATCH_ROWS_DEFAULT = "4096";
+  private static final Logger logger = LoggerFactory.getLogger(ArrowIpc.class);
+  private static final String BATCH_KEYS_METADATA = "ycsb.batch_keys";
+  private static final String PHASE_OPEN = "ARROW-IPC-OPEN";
+  private static final String PHASE_DECODE = "ARROW-IPC-DECODE";
+
+  private int batchRows;
+
+  private BufferAllocator allocator;
+
+  private ArrowFileReader reader;
+
+  private List<ArrowBlock> blocks;
+
+  private long[] mins;
+
+  private long[] maxs;
+
+  private int loadedBlock = -1;
+
+  @Override
+  public void init() throws DBException {
+    if (Boolean.parseBoolean(getProperties().getProperty(DUMP_STREAMING, DUMP_STREAMING_DEFAULT))) {
+      throw new DBException("streaming dump is not supported by Arrow IPC");
+    }
+    try {
+      if (Long.parseLong(getProperties().getProperty(DUMP_ROWS_PER_FILE, DUMP_ROWS_PER_FILE_DEFAULT)) > 0) {
+        throw new DBException("dump into several files is not supported by Arrow IPC");
+      }
+    } catch (NumberFormatException e) {
+      throw new DBException("failed to parse `" + DUMP_ROWS_PER_FILE + "`", e);
+    }
+    super.init();
+    try {
+      batchRows = Integer.parseInt(getProperties().getProperty(IPC_BATCH_ROWS, IPC_BATCH_ROWS_DEFAULT));
+      allocator = new RootAllocator();
+    } catch (Exception e) {
+      DBException exception = new DBException("failed to init super", e);
+      // releases what super acquired, as cleanup() is not called after a failed init()
+      try {
+        super.cleanup();
+      } catch (DBException suppressed) {
+        exception.addSuppressed(suppressed);
+      }
+      throw exception;
+    }
+  }
+
+  @Override
+  public void cleanup() throws DBException {
+    try {
+      super.cleanup();
+    } finally {
+      try {
+        if (reader != null) {
+          reader.close();
+        }
+        allocator.close();
+      } catch (Exception e) {
+        logger.error("failed to close {}", readPath, e);
+      } finally {
+        reader = null;
+        allocator = null;
+      }
+    }
+  }
+
+  @Override
+  protected void dump(DataBuffer<Long, String, Object> buffer) throws IOException, StorageException {
+    long start = System.nanoTime();
+    List<Field> fields = new ArrayList<>();
+    fields.add(Field.notNullable(Constants.KEY_FIELD_NAME, new ArrowType.Int(64, true)));
+    for (int i = 0; i < fieldCount; i++) {
+      fields.add(Field.nullable(tableName + "." + fieldNamePrefix + i, ArrowType.Binary.INSTANCE));
+    }
+    Map<String, String> metadata = Collections.singletonMap(BATCH_KEYS_METADATA, getBatchKeys(buffer));
+    long rows = 0;
+    int batches = 0;
+    try (VectorSchemaRoot root = VectorSchemaRoot.create(new Schema(fields), allocator);
+         FileChannel channel = FileChannel.open(dumpPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+         ArrowFileWriter writer = new ArrowFileWriter(root, null, channel, metadata);
+         Scanner<Long, Scanner<String, Object>> scanner = buffer.scanRows(buffer.fields(), Range.all())) {
+      writer.start();
+      BigIntVector keyVector = (BigIntVector) root.getVector(Constants.KEY_FIELD_NAME);
+      root.allocateNew();
+      int count = 0;
+      while (scanner.iterate()) {
+        keyVector.setSafe(count, scanner.key());
+        Scanner<String, Object> row = scanner.value();
+        while (row.iterate()) {
+          FieldVector valueVector = root.getVector(row.key());
+          if (valueVector != null) {
+            ((VarBinaryVector) valueVector).setSafe(count, (byte[]) row.value());
+          }
+        }
+        if (++count == batchRows) {
+          writeBatch(root, writer, count);
+          rows += count;
+          batches++;
+          count = 0;
+        }
+      }
+      if (count > 0) {
+        writeBatch(root, writer, count);
+        rows += count;
+        batches++;
+      }
+      writer.end();
+    }
+    Map<String, Object> layout = new LinkedHashMap<>();
+    layout.put("writer", "arrow-ipc");
+    layout.put("batches", batches);
+    layout.put("batch_rows", batchRows);
+    String summary = DumpWriter.writeSummary(dumpPath, Collections.singletonList(dumpPath), layout, rows, System.nanoTime() - start);
+    logger.info("dumped into {}:{}{}", dumpPath, System.lineSeparator(), summary);
+  }
+
+  /**
+   * Returns the key range of every batch the buffer is dumped into, as {@code min:max} separated by commas.
+   */
+  private String getBatchKeys(DataBuffer<Long, String, Object> buffer) throws StorageException {
+    StringJoiner batchKeys = new StringJoiner(",");
+    try (Scanner<Long, Scanner<String, Object>> scanner = buffer.scanRows(buffer.fields(), Range.all())) {
+      int count = 0;
+      long min = 0;
+      long max = 0;
+      while (scanner.iterate()) {
+        max = scanner.key();
+        if (count == 0) {
+          min = max;
+        }
+        if (++count == batchRows) {
+          batchKeys.add(min + ":" + max);
+          count = 0;
+        }
+      }
+      if (count > 0) {
+        batchKeys.add(min + ":" + max);
+      }
+    }
+    return batchKeys.toString();
+  }
+
+  private static void writeBatch(VectorSchemaRoot root, ArrowFileWriter writer, int count) throws IOException {
+    root.setRowCount(count);
+    writer.writeBatch();
+    root.allocateNew();
+  }
+
+  private void open() throws IOException {
+    try (FileChannel channel = FileChannel.open(readPath, StandardOpenOption.READ)) {
+      reader = new ArrowFileReader(new MappedChannel(channel), allocator);
+    }
+    blocks = reader.getRecordBlocks();
+    mins = new long[blocks.size()];
+    maxs = new long[blocks.size()];
+    Map<String, String> metadata = reader.getMetaData();
+    String batchKeys = metadata == null ? null : metadata.get(BATCH_KEYS_METADATA);
+    if (batchKeys != null && !batchKeys.isEmpty()) {
+      String[] ranges = batchKeys.split(",");
+      if (ranges.length != blocks.size()) {
+        throw new IOException("key ranges of " + ranges.length + " batches in the footer of " + readPath + " with " + blocks.size() + " batches");
+      }
+      for (int i = 0; i < ranges.length; i++) {
+        int separator = ranges[i].indexOf(':');
+        mins[i] = Long.parseLong(ranges[i].substring(0, separator));
+        maxs[i] = Long.parseLong(ranges[i].substring(separator + 1));
+      }
+    } else {
+      // not dumped by this binding, index the batches by loading each of them once
+      for (int i = 0; i < blocks.size(); i++) {
+        load(i);
+        BigIntVector keyVector = (BigIntVector) reader.getVectorSchemaRoot().getVector(Constants.KEY_FIELD_NAME);
+        int rowCount = reader.getVectorSchemaRoot().getRowCount();
+        mins[i] = rowCount == 0 ? Long.MAX_VALUE : keyVector.get(0);
+        maxs[i] = rowCount == 0 ? Long.MIN_VALUE : keyVector.get(rowCount - 1);
+      }
+    }
+    logger.info("indexed {} batches of {}", blocks.size(), readPath);
+  }
+
+  private void load(int block) throws IOException {
+    if (loadedBlock != block) {
+      loadedBlock = -1;
+      reader.loadRecordBatch(blocks.get(block));
+      loadedBlock = block;
+    }
+  }
+
+  @Override
+  protected Status doScan(Set<String> fields, Vector<HashMap<String, ByteIterator>> result, long start, long interval) {
+    long end = start + interval < start ? Long.MAX_VALUE : start + interval;
+    try {
+      if (reader == null) {
+        long phaseStart = phaseTimer.start();
+        open();
+        phaseTimer.measure(PHASE_OPEN, phaseStart);
+      }
+      List<String> columns = getParquetColumns(fields);
+      for (int block = firstBlockEndingAtOrAfter(start); block < blocks.size() && mins[block] < end; block++) {
+        long phaseStart = phaseTimer.start();
+        load(block);
+        phaseStart = phaseTimer.measure(PHASE_OPEN, phaseStart);
+        VectorSchemaRoot root = reader.getVectorSchemaRoot();
+        BigIntVector keyVector = (BigIntVector) root.getVector(Constants.KEY_FIELD_NAME);
+        List<VarBinaryVector> valueVectors = new ArrayList<>();
+        List<String> ycsbFieldNames = new ArrayList<>();
+        for (FieldVector fieldVector : columns == null ? root.getFieldVectors() : getVectors(root, columns)) {
+          if (fieldVector != keyVector) {
+            valueVectors.add((VarBinaryVector) fieldVector);
+            ycsbFieldNames.add(CoreUtils.getFieldName(fieldVector.getName()));
+          }
+        }
+        int rowCount = root.getRowCount();
+        for (int i = firstRowAtOrAfter(keyVector, rowCount, start); i < rowCount && keyVector.get(i) < end; i++) {
+          HashMap<String, ByteIterator> map = new HashMap<>();
+          for (int j = 0; j < valueVectors.size(); j++) {
+            VarBinaryVector valueVector = valueVectors.get(j);
+            if (!valueVector.isNull(i)) {
+              map.put(ycsbFieldNames.get(j), CoreUtils.getByteIterator(valueVector.get(i)));
+            }
+          }
+          result.add(map);
+        }
+        phaseTimer.measure(PHASE_DECODE, phaseStart);
+      }
+    } catch (Exception e) {
+      logger.error("failed to scan", e);
+      return Status.ERROR;
+    }
+    if (result.isEmpty()) {
+      return Status.NOT_FOUND;
+    }
+    return Status.OK;
+  }
+
+  private static List<FieldVector> getVectors(VectorSchemaRoot root, List<String> columns) {
+    List<FieldVector> vectors = new ArrayList<>(columns.size());
+    for (String column : columns) {
+      FieldVector vector = root.getVector(column);
+      if (vector != null) {
+        vectors.add(vector);
+      }
+    }
+    return vectors;
+  }
+
+  private int firstBlockEndingAtOrAfter(long key) {
+    int low = 0;
+    int high = maxs.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (maxs[mid] < key) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static int firstRowAtOrAfter(BigIntVector keyVector, int rowCount, long key) {
+    int low = 0;
+    int high = rowCount;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (keyVector.get(mid) < key) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Read-only channel over a file mapped into memory in chunks of at most 1 GiB, so that record batches are copied
+   * straight out of the page cache instead of through a system call per read.
+   */
+  private static class MappedChannel implements SeekableByteChannel {
+    private static final long CHUNK_SIZE = 1L << 30;
+    private final MappedByteBuffer[] chunks;
+    private final long size;
+    private long position = 0;
+    private boolean open = true;
+
+    private MappedChannel(FileChannel channel) throws IOException {
+      this.size = channel.size();
+      this.chunks = new MappedByteBuffer[(int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+      for (int i = 0; i < chunks.length; i++) {
+        long offset = i * CHUNK_SIZE;
+        chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(CHUNK_SIZE, size - offset));
+      }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) {
+      if (position >= size) {
+        return -1;
+      }
+      int total = 0;
+      while (dst.hasRemaining() && position < size) {
+        ByteBuffer chunk = chunks[(int) (position / CHUNK_SIZE)].duplicate();
+        chunk.position((int) (position % CHUNK_SIZE));
+        int length = Math.min(dst.remaining(), chunk.remaining());
+        chunk.limit(chunk.position() + length);
+        dst.put(chunk);
+        position += length;
+        total += length;
+      }
+      return total;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+      throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() {
+      return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) {
+      this.position = newPosition;
+      return this;
+    }
+
+    @Override
+    public long size() {
+      return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+      throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+      return open;
+    }
+
+    @Override
+    public void close() {
+      open = false;
+    }
+  }
+}
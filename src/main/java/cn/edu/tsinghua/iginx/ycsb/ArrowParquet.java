@@ -1,6 +1,14 @@
 package cn.edu.tsinghua.iginx.ycsb;
 
 import cn.edu.tsinghua.iginx.parquet.shared.Constants;
+import io.substrait.proto.Expression;
+import io.substrait.proto.ExpressionReference;
+import io.substrait.proto.ExtendedExpression;
+import io.substrait.proto.FunctionArgument;
+import io.substrait.proto.NamedStruct;
+import io.substrait.proto.SimpleExtensionDeclaration;
+import io.substrait.proto.SimpleExtensionURI;
+import io.substrait.proto.Type;
 import org.apache.arrow.dataset.file.FileFormat;
 import org.apache.arrow.dataset.file.FileSystemDatasetFactory;
 import org.apache.arrow.dataset.jni.NativeMemoryPool;
@@ -8,81 +16,211 @@ import org.apache.arrow.dataset.scanner.ScanOptions;
 import org.apache.arrow.dataset.scanner.Scanner;
 import org.apache.arrow.dataset.source.Dataset;
 import org.apache.arrow.dataset.source.DatasetFactory;
+import org.apache.arrow.memory.ArrowBuf;
 import org.apache.arrow.memory.BufferAllocator;
 import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
 import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.VarBinaryVector;
 import org.apache.arrow.vector.VectorSchemaRoot;
 import org.apache.arrow.vector.ipc.ArrowReader;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import site.ycsb.ByteIterator;
 import site.ycsb.DBException;
 import site.ycsb.Status;
 
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.Vector;
 
 public class ArrowParquet extends Parquet {
 
+  public static final String ARROW_BATCH_SIZE = "parquet.arrow.batch_size";
+  public static final String ARROW_BATCH_SIZE_DEFAULT = "2048";
   private static final Logger logger = LoggerFactory.getLogger(ArrowParquet.class);
+  private static final String COMPARISON_FUNCTIONS_URI = "/functions_comparison.yaml";
+  private static final String BOOLEAN_FUNCTIONS_URI = "/functions_boolean.yaml";
+  private static final String PHASE_OPEN = "ARROW-OPEN";
+  private static final String PHASE_DECODE = "ARROW-DECODE";
 
   private String uri;
 
+  private long batchSize;
+
+  private BufferAllocator allocator;
+
+  // datasets of the files read so far, which share the schema of the first file
+  private final Map<Path, DatasetFactory> datasetFactories = new HashMap<>();
+
+  private final Map<Path, Dataset> datasets = new HashMap<>();
+
+  private NamedStruct baseSchema;
+
+  private int keyIndex;
+
+  // data buffers backing the iterators of the last scan, kept alive until the next scan or cleanup
+  private final List<ArrowBuf> retained = new ArrayList<>();
+
   @Override
   public void init() throws DBException {
     super.init();
     uri = readPath.toUri().toString();
+    try {
+      batchSize = Long.parseLong(getProperties().getProperty(ARROW_BATCH_SIZE, ARROW_BATCH_SIZE_DEFAULT));
+    } catch (NumberFormatException e) {
+      DBException exception = new DBException("failed to parse `" + ARROW_BATCH_SIZE + "`", e);
+      // releases what super acquired, as cleanup() is not called after a failed init()
+      try {
+        super.cleanup();
+      } catch (DBException suppressed) {
+        exception.addSuppressed(suppressed);
+      }
+      throw exception;
+    }
+  }
+
+  /**
+   * Opens the allocator and the dataset of the first file on the first scan, as the files are not written yet when
+   * the binding is initialized for a load.
+   */
+  private void openDataset() throws Exception {
+    try {
+      allocator = new RootAllocator();
+      List<Path> files = getReadFiles(Long.MIN_VALUE, Long.MAX_VALUE);
+      if (files.isEmpty()) {
+        throw new DBException("no file in dataset " + uri);
+      }
+      getDataset(files.get(0));
+      Schema schema = datasetFactories.get(files.get(0)).inspect();
+      baseSchema = toNamedStruct(schema);
+      keyIndex = schema.getFields().indexOf(schema.findField(Constants.KEY_FIELD_NAME));
+    } catch (Exception e) {
+      closeDataset();
+      throw e;
+    }
   }
 
   @Override
   public void cleanup() throws DBException {
-    super.cleanup();
+    try {
+      super.cleanup();
+    } finally {
+      closeDataset();
+    }
+  }
+
+  private void releaseRetained() {
+    for (ArrowBuf buffer : retained) {
+      buffer.getReferenceManager().release();
+    }
+    retained.clear();
+  }
+
+  private Dataset getDataset(Path file) {
+    Dataset dataset = datasets.get(file);
+    if (dataset == null) {
+      DatasetFactory datasetFactory = new FileSystemDatasetFactory(allocator, NativeMemoryPool.getDefault(), FileFormat.PARQUET, file.toUri().toString());
+      datasetFactories.put(file, datasetFactory);
+      dataset = datasetFactory.finish();
+      datasets.put(file, dataset);
+    }
+    return dataset;
+  }
+
+  private void closeDataset() {
+    try {
+      releaseRetained();
+      for (Dataset dataset : datasets.values()) {
+        dataset.close();
+      }
+      for (DatasetFactory datasetFactory : datasetFactories.values()) {
+        datasetFactory.close();
+      }
+      if (allocator != null) {
+        allocator.close();
+      }
+    } catch (Exception e) {
+      logger.error("failed to close dataset {}", uri, e);
+    } finally {
+      datasets.clear();
+      datasetFactories.clear();
+      allocator = null;
+    }
   }
 
   @Override
   protected Status doScan(Set<String> fields, Vector<HashMap<String, ByteIterator>> result, long start, long interval) {
-    if (fields != null) {
-      return Status.NOT_IMPLEMENTED;
-    }
-    ScanOptions options = new ScanOptions.Builder(2048).build();
-    try (
-        BufferAllocator allocator = new RootAllocator();
-        DatasetFactory datasetFactory = new FileSystemDatasetFactory(
-            allocator, NativeMemoryPool.getDefault(),
-            FileFormat.PARQUET, uri);
-        Dataset dataset = datasetFactory.finish();
-        Scanner scanner = dataset.newScan(options);
-        ArrowReader reader = scanner.scanBatches()
-    ) {
-      scanner.schema();
-      while (reader.loadNextBatch()) {
-        try (VectorSchemaRoot root = reader.getVectorSchemaRoot()) {
-          FieldVector keyVector = root.getVector(Constants.KEY_FIELD_NAME);
-          for (int i = 0; i < root.getRowCount(); i++) {
-            Object key = keyVector.getObject(i);
-            if (!(key instanceof Long)) {
-              throw new DBException("key is not long, but: " + key.getClass().getName());
-            }
-            if ((Long) key < start || (Long) key >= start + interval) {
-              continue;
-            }
-            HashMap<String, ByteIterator> map = new HashMap<>();
+    long end = start + interval < start ? Long.MAX_VALUE : start + interval;
+    List<String> columns = getParquetColumns(fields);
+    Optional<String[]> projection = columns == null ? Optional.empty() : Optional.of(columns.toArray(new String[0]));
+    releaseRetained();
+    try {
+      if (allocator == null) {
+        openDataset();
+      }
+      ScanOptions.Builder optionsBuilder = new ScanOptions.Builder(batchSize).columns(projection);
+      if (start != 0 || end != Long.MAX_VALUE) {
+        optionsBuilder.substraitFilter(getKeyRangeFilter(start, end));
+      }
+      ScanOptions options = optionsBuilder.build();
+      for (Path file : getReadFiles(start, end)) {
+        long phaseStart = phaseTimer.start();
+        try (
+            Scanner scanner = getDataset(file).newScan(options);
+            ArrowReader reader = scanner.scanBatches()
+        ) {
+          phaseStart = phaseTimer.measure(PHASE_OPEN, phaseStart);
+          while (reader.loadNextBatch()) {
+            VectorSchemaRoot root = reader.getVectorSchemaRoot();
+            BigIntVector keyVector = (BigIntVector) root.getVector(Constants.KEY_FIELD_NAME);
+            List<VarBinaryVector> valueVectors = new ArrayList<>(root.getFieldVectors().size());
+            List<String> ycsbFieldNames = new ArrayList<>(root.getFieldVectors().size());
             for (FieldVector fieldVector : root.getFieldVectors()) {
-              String name = fieldVector.getName();
-              if (name.equals(Constants.KEY_FIELD_NAME)) {
+              if (fieldVector == keyVector) {
                 continue;
               }
-              Object value = fieldVector.getObject(i);
-              if (!(value instanceof byte[])) {
-                throw new DBException("value is not byte[], but: " + value.getClass().getName());
+              if (!(fieldVector instanceof VarBinaryVector)) {
+                throw new DBException("value is not binary, but: " + fieldVector.getField().getType());
+              }
+              valueVectors.add((VarBinaryVector) fieldVector);
+              ycsbFieldNames.add(CoreUtils.getFieldName(fieldVector.getName()));
+            }
+            int resultSize = result.size();
+            for (int i = 0; i < root.getRowCount(); i++) {
+              long key = keyVector.get(i);
+              if (key < start || key >= end) {
+                continue;
+              }
+              HashMap<String, ByteIterator> map = new HashMap<>();
+              for (int j = 0; j < valueVectors.size(); j++) {
+                VarBinaryVector valueVector = valueVectors.get(j);
+                if (valueVector.isNull(i)) {
+                  continue;
+                }
+                ByteBuffer value = valueVector.getDataBuffer().nioBuffer(valueVector.getStartOffset(i), valueVector.getValueLength(i));
+                map.put(ycsbFieldNames.get(j), CoreUtils.getByteIterator(value));
+              }
+              result.add(map);
+            }
+            if (result.size() > resultSize) {
+              for (VarBinaryVector valueVector : valueVectors) {
+                ArrowBuf data = valueVector.getDataBuffer();
+                data.getReferenceManager().retain();
+                retained.add(data);
               }
-              String ycsbFieldName = CoreUtils.getFieldName(name);
-              ByteIterator iterator = CoreUtils.getByteIterator((byte[]) value);
-              map.put(ycsbFieldName, iterator);
             }
-            result.add(map);
           }
+          phaseTimer.measure(PHASE_DECODE, phaseStart);
         }
       }
       if (result.isEmpty()) {
@@ -94,4 +232,79 @@ public class ArrowParquet extends Parquet {
       return Status.ERROR;
     }
   }
+
+  /**
+   * Builds a serialized substrait extended expression of {@code start <= key AND key < end} over the dataset schema.
+   */
+  private ByteBuffer getKeyRangeFilter(long start, long end) {
+    Type bool = Type.newBuilder().setBool(Type.Boolean.newBuilder().setNullability(Type.Nullability.NULLABILITY_NULLABLE)).build();
+    Expression key = Expression.newBuilder().setSelection(
+        Expression.FieldReference.newBuilder()
+            .setDirectReference(Expression.ReferenceSegment.newBuilder().setStructField(
+                Expression.ReferenceSegment.StructField.newBuilder().setField(keyIndex)))
+            .setRootReference(Expression.FieldReference.RootReference.getDefaultInstance())
+    ).build();
+    Expression filter = getScalarFunction(2, bool,
+        getScalarFunction(0, bool, key, getLongLiteral(start)),
+        getScalarFunction(1, bool, key, getLongLiteral(end)));
+
+    ExtendedExpression expression = ExtendedExpression.newBuilder()
+        .addExtensionUris(SimpleExtensionURI.newBuilder().setExtensionUriAnchor(0).setUri(COMPARISON_FUNCTIONS_URI))
+        .addExtensionUris(SimpleExtensionURI.newBuilder().setExtensionUriAnchor(1).setUri(BOOLEAN_FUNCTIONS_URI))
+        .addExtensions(getFunctionDeclaration(0, 0, "gte:any_any"))
+        .addExtensions(getFunctionDeclaration(0, 1, "lt:any_any"))
+        .addExtensions(getFunctionDeclaration(1, 2, "and:bool"))
+        .addReferredExpr(ExpressionReference.newBuilder().setExpression(filter).addOutputNames("key_range"))
+        .setBaseSchema(baseSchema)
+        .build();
+    byte[] bytes = expression.toByteArray();
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+    buffer.put(bytes);
+    return buffer;
+  }
+
+  private static SimpleExtensionDeclaration getFunctionDeclaration(int uriReference, int anchor, String name) {
+    return SimpleExtensionDeclaration.newBuilder().setExtensionFunction(
+        SimpleExtensionDeclaration.ExtensionFunction.newBuilder()
+            .setExtensionUriReference(uriReference)
+            .setFunctionAnchor(anchor)
+            .setName(name)
+    ).build();
+  }
+
+  private static Expression getScalarFunction(int anchor, Type outputType, Expression left, Expression right) {
+    return Expression.newBuilder().setScalarFunction(
+        Expression.ScalarFunction.newBuilder()
+            .setFunctionReference(anchor)
+            .setOutputType(outputType)
+            .addArguments(FunctionArgument.newBuilder().setValue(left))
+            .addArguments(FunctionArgument.newBuilder().setValue(right))
+    ).build();
+  }
+
+  private static Expression getLongLiteral(long value) {
+    return Expression.newBuilder().setLiteral(Expression.Literal.newBuilder().setI64(value)).build();
+  }
+
+  private static NamedStruct toNamedStruct(Schema schema) {
+    Type.Struct.Builder struct = Type.Struct.newBuilder().setNullability(Type.Nullability.NULLABILITY_REQUIRED);
+    NamedStruct.Builder builder = NamedStruct.newBuilder();
+    for (Field field : schema.getFields()) {
+      Type.Nullability nullability = field.isNullable() ? Type.Nullability.NULLABILITY_NULLABLE : Type.Nullability.NULLABILITY_REQUIRED;
+      ArrowType type = field.getType();
+      Type.Builder typeBuilder = Type.newBuilder();
+      if (type instanceof ArrowType.Int && ((ArrowType.Int) type).getBitWidth() == 64) {
+        typeBuilder.setI64(Type.I64.newBuilder().setNullability(nullability));
+      } else if (type instanceof ArrowType.Binary) {
+        typeBuilder.setBinary(Type.Binary.newBuilder().setNullability(nullability));
+      } else if (type instanceof ArrowType.Utf8) {
+        typeBuilder.setString(Type.String.newBuilder().setNullability(nullability));
+      } else {
+        throw new IllegalArgumentException("unsupported type of " + field.getName() + ": " + type);
+      }
+      builder.addNames(field.getName());
+      struct.addTypes(typeBuilder);
+    }
+    return builder.setStruct(struct).build();
+  }
 }
@@ -0,0 +1,197 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import site.ycsb.ByteIterator;
+import site.ycsb.DBException;
+import site.ycsb.Status;
+import site.ycsb.measurements.Measurements;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * IGinX binding that keeps up to {@code iginx.async.window} operations of each YCSB thread in flight. Operations are
+ * run over the session pool by a small executor shared by all client threads of the process, and return to YCSB as
+ * soon as they are dispatched. Their latencies are recorded on completion as {@code ASYNC-<operation>}, measured both
+ * from dispatch and from the intended start time, so that time spent waiting for a free slot in the window is not
+ * omitted. Results of reads and scans are discarded, and operations in the same window may complete out of order.
+ */
+public class AsyncIGinXClient extends IGinXClient {
+
+  public static final String WINDOW_PROPERTY = "iginx.async.window";
+  public static final String WINDOW_PROPERTY_DEFAULT = "16";
+  public static final String THREADS_PROPERTY = "iginx.async.threads";
+  private static final String OPERATION_PREFIX = "ASYNC-";
+  private static final Logger logger = LoggerFactory.getLogger(AsyncIGinXClient.class);
+
+  private static ExecutorService sharedExecutor = null;
+
+  private static int sharedReferences = 0;
+
+  private ExecutorService executor;
+
+  private Semaphore window;
+
+  private int windowSize;
+
+  private Measurements measurements;
+
+  private static synchronized ExecutorService acquireExecutor(int threads) {
+    if (sharedExecutor == null) {
+      AtomicInteger index = new AtomicInteger();
+      sharedExecutor = Executors.newFixedThreadPool(threads, r -> {
+        Thread thread = new Thread(r, "iginx-async-" + index.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    sharedReferences++;
+    return sharedExecutor;
+  }
+
+  private static synchronized void releaseExecutor() {
+    if (--sharedReferences == 0) {
+      sharedExecutor.shutdown();
+      sharedExecutor = null;
+    }
+  }
+
+  @Override
+  public void init() throws DBException {
+    super.init();
+    if (!isPooled()) {
+      throw failInit(new DBException("asynchronous operations need a session pool, set `iginx.pool.size`"));
+    }
+    if (!isInsertBuffered() && isDeleteBuffered()) {
+      // a buffered delete could reach the server before an insert of the same key still in flight
+      throw failInit(new DBException("asynchronous inserts cannot be ordered with buffered deletes, set "
+          + "`iginx.buffersize` or unset `iginx.delete.buffersize`"));
+    }
+    int threads;
+    try {
+      windowSize = Integer.parseInt(getProperties().getProperty(WINDOW_PROPERTY, WINDOW_PROPERTY_DEFAULT));
+      threads = Integer.parseInt(getProperties().getProperty(THREADS_PROPERTY, getProperties().getProperty(POOL_SIZE_PROPERTY)));
+    } catch (NumberFormatException e) {
+      throw failInit(new DBException("fail to parse `iginx.async.window` or `iginx.async.threads`", e));
+    }
+    if (windowSize < 1 || threads < 1) {
+      throw failInit(new DBException("`iginx.async.window` and `iginx.async.threads` should be positive"));
+    }
+    this.window = new Semaphore(windowSize);
+    this.measurements = Measurements.getMeasurements();
+    this.executor = acquireExecutor(threads);
+  }
+
+  /**
+   * Releases what super acquired, as cleanup() is not called after a failed init(), and returns the exception to throw.
+   */
+  private DBException failInit(DBException exception) {
+    try {
+      super.cleanup();
+    } catch (DBException e) {
+      exception.addSuppressed(e);
+    }
+    return exception;
+  }
+
+  @Override
+  public void cleanup() throws DBException {
+    try {
+      window.acquire(windowSize);
+      window.release(windowSize);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DBException("interrupted while waiting for operations in flight", e);
+    } finally {
+      releaseExecutor();
+      super.cleanup();
+    }
+  }
+
+  @Override
+  public Status read(String table, String key, Set<String> fields, Map<String, ByteIterator> result) {
+    return submit("READ", () -> super.read(table, key, fields, new HashMap<>()));
+  }
+
+  @Override
+  public Status scan(String table, String startkey, int recordcount, Set<String> fields, Vector<HashMap<String, ByteIterator>> result) {
+    return submit("SCAN", () -> scanRows(table, startkey, recordcount, fields, new Vector<>()));
+  }
+
+  @Override
+  public Status update(String table, String key, Map<String, ByteIterator> values) {
+    if (isInsertBuffered()) {
+      return super.update(table, key, values);
+    }
+    return submit("UPDATE", () -> insertRow(table, key, values));
+  }
+
+  @Override
+  public Status insert(String table, String key, Map<String, ByteIterator> values) {
+    if (isInsertBuffered()) {
+      return super.insert(table, key, values);
+    }
+    return submit("INSERT", () -> insertRow(table, key, values));
+  }
+
+  @Override
+  public Status delete(String table, String key) {
+    if (isDeleteBuffered()) {
+      return super.delete(table, key);
+    }
+    return submit("DELETE", () -> super.delete(table, key));
+  }
+
+  /**
+   * Dispatches the operation once the window has a free slot. Returns an error only if it cannot be dispatched.
+   */
+  private Status submit(String operation, Supplier<Status> task) {
+    long intendedStartNanos = measurements.getIntendedStartTimeNs();
+    if (intendedStartNanos == 0) {
+      intendedStartNanos = System.nanoTime();
+    }
+    try {
+      window.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      logger.error("interrupted while waiting for a free slot of the window", e);
+      return Status.ERROR;
+    }
+    long startNanos = System.nanoTime();
+    long intendedNanos = intendedStartNanos;
+    try {
+      executor.execute(() -> {
+        try {
+          Status status;
+          try {
+            status = task.get();
+          } catch (RuntimeException e) {
+            logger.error("fail to {} asynchronously", operation, e);
+            status = Status.ERROR;
+          }
+          long endNanos = System.nanoTime();
+          measurements.measure(OPERATION_PREFIX + operation, (int) TimeUnit.NANOSECONDS.toMicros(endNanos - startNanos));
+          measurements.measureIntended(OPERATION_PREFIX + operation, (int) TimeUnit.NANOSECONDS.toMicros(endNanos - intendedNanos));
+          measurements.reportStatus(OPERATION_PREFIX + operation, status);
+        } finally {
+          window.release();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      window.release();
+      logger.error("fail to dispatch {}", operation, e);
+      return Status.ERROR;
+    }
+    return Status.OK;
+  }
+}
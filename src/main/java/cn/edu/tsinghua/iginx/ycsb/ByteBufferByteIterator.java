@@ -0,0 +1,52 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+import site.ycsb.ByteIterator;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link ByteIterator} over a slice of a (possibly direct) {@link ByteBuffer}. Nothing is copied until the bytes are
+ * consumed.
+ */
+public class ByteBufferByteIterator extends ByteIterator {
+
+  private final ByteBuffer buffer;
+
+  public ByteBufferByteIterator(ByteBuffer buffer) {
+    this.buffer = buffer.slice();
+  }
+
+  @Override
+  public boolean hasNext() {
+    return buffer.hasRemaining();
+  }
+
+  @Override
+  public byte nextByte() {
+    return buffer.get();
+  }
+
+  @Override
+  public int nextBuf(byte[] buf, int bufOff) {
+    int size = Math.min(buf.length - bufOff, buffer.remaining());
+    buffer.get(buf, bufOff, size);
+    return bufOff + size;
+  }
+
+  @Override
+  public long bytesLeft() {
+    return buffer.remaining();
+  }
+
+  @Override
+  public void reset() {
+    buffer.rewind();
+  }
+
+  @Override
+  public byte[] toArray() {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return bytes;
+  }
+}
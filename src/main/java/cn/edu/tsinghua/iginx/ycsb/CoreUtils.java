@@ -3,15 +3,38 @@ package cn.edu.tsinghua.iginx.ycsb;
 import site.ycsb.ByteArrayByteIterator;
 import site.ycsb.ByteIterator;
 
+import java.nio.ByteBuffer;
+
 public class CoreUtils {
   public static long getTimestamp(String key) {
-    return Long.parseLong(key.substring(4));
+    return NumericKeyCodec.DEFAULT.encode(key);
   }
 
   public static String getFieldName(String path) {
     return path.substring(path.indexOf('.') + 1);
   }
 
+  /**
+   * Returns {@code i} for a field named {@code prefix + i} with {@code 0 <= i < count}, or -1 otherwise.
+   */
+  public static int getFieldIndex(String field, String prefix, int count) {
+    if (!field.startsWith(prefix) || field.length() == prefix.length()) {
+      return -1;
+    }
+    int index = 0;
+    for (int i = prefix.length(); i < field.length(); i++) {
+      int digit = field.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        return -1;
+      }
+      index = index * 10 + digit;
+      if (index >= count) {
+        return -1;
+      }
+    }
+    return index;
+  }
+
   public static String getPath(String table, String field) {
     return table + "." + field;
   }
@@ -23,4 +46,8 @@ public class CoreUtils {
   public static ByteIterator getByteIterator(byte[] value) {
     return new ByteArrayByteIterator(value);
   }
+
+  public static ByteIterator getByteIterator(ByteBuffer value) {
+    return new ByteBufferByteIterator(value);
+  }
 }
@@ -0,0 +1,113 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Manifest of a dataset directory: the files of the dataset in key order, each covering a disjoint key range, with
+ * their key bounds and row counts. Stored as {@code _manifest} in the directory, one {@code file,min,max,rows} line per
+ * file after a header.
+ */
+public class DatasetManifest {
+
+  public static final String FILE_NAME = "_manifest";
+
+  private static final String HEADER = "file,min_key,max_key,rows";
+
+  private final Path dir;
+
+  private final List<Entry> entries;
+
+  private DatasetManifest(Path dir, List<Entry> entries) {
+    this.dir = dir;
+    this.entries = entries;
+  }
+
+  public static boolean exists(Path dir) {
+    return Files.isRegularFile(dir.resolve(FILE_NAME));
+  }
+
+  public static DatasetManifest read(Path dir) throws IOException {
+    List<Entry> entries = new ArrayList<>();
+    List<String> lines = Files.readAllLines(dir.resolve(FILE_NAME), StandardCharsets.UTF_8);
+    for (String line : lines.subList(Math.min(1, lines.size()), lines.size())) {
+      if (line.trim().isEmpty()) {
+        continue;
+      }
+      String[] parts = line.split(",");
+      if (parts.length != 4) {
+        throw new IOException("malformed line of " + dir.resolve(FILE_NAME) + ": " + line);
+      }
+      Entry entry = new Entry(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+      if (!entries.isEmpty() && entry.minKey <= entries.get(entries.size() - 1).maxKey) {
+        throw new IOException("key ranges of " + dir.resolve(FILE_NAME) + " are not ordered and disjoint at " + entry.file);
+      }
+      entries.add(entry);
+    }
+    return new DatasetManifest(dir, entries);
+  }
+
+  public static void write(Path dir, List<Entry> entries) throws IOException {
+    List<String> lines = new ArrayList<>(entries.size() + 1);
+    lines.add(HEADER);
+    for (Entry entry : entries) {
+      lines.add(entry.file + "," + entry.minKey + "," + entry.maxKey + "," + entry.rows);
+    }
+    Files.write(dir.resolve(FILE_NAME), lines, StandardCharsets.UTF_8);
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public List<Path> getFiles() {
+    List<Path> files = new ArrayList<>(entries.size());
+    for (Entry entry : entries) {
+      files.add(dir.resolve(entry.file));
+    }
+    return files;
+  }
+
+  /**
+   * Returns the files whose key range overlaps {@code [start, end)}, in key order.
+   */
+  public List<Path> getFiles(long start, long end) {
+    int low = 0;
+    int high = entries.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (entries.get(mid).maxKey < start) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    if (low == entries.size() || entries.get(low).minKey >= end) {
+      return Collections.emptyList();
+    }
+    List<Path> files = new ArrayList<>();
+    for (int i = low; i < entries.size() && entries.get(i).minKey < end; i++) {
+      files.add(dir.resolve(entries.get(i).file));
+    }
+    return files;
+  }
+
+  public static class Entry {
+    private final String file;
+    private final long minKey;
+    private final long maxKey;
+    private final long rows;
+
+    public Entry(String file, long minKey, long maxKey, long rows) {
+      this.file = file;
+      this.minKey = minKey;
+      this.maxKey = maxKey;
+      this.rows = rows;
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+import java.util.Arrays;
+
+/**
+ * Buffer of deleted keys in a primitive array, merged into sorted, disjoint {@code [start, end)} ranges on flush.
+ */
+public class DeleteBuffer {
+
+  private long[] keys;
+
+  private int size = 0;
+
+  private long firstNanos = 0;
+
+  public DeleteBuffer(int initialCapacity) {
+    this.keys = new long[Math.max(1, initialCapacity)];
+  }
+
+  public void add(long key) {
+    if (size == 0) {
+      firstNanos = System.nanoTime();
+    }
+    if (size == keys.length) {
+      keys = Arrays.copyOf(keys, keys.length * 2);
+    }
+    keys[size++] = key;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Returns the nanoseconds since the oldest buffered key was added.
+   */
+  public long ageNanos() {
+    return size == 0 ? 0 : System.nanoTime() - firstNanos;
+  }
+
+  /**
+   * Returns the buffered keys as ranges, {@code start} and {@code end} of each range in turn, where adjacent and
+   * repeated keys are merged into one range.
+   */
+  public long[] toRanges() {
+    Arrays.sort(keys, 0, size);
+    long[] ranges = new long[size * 2];
+    int count = 0;
+    for (int i = 0; i < size; i++) {
+      long key = keys[i];
+      if (count > 0 && key <= ranges[count - 1]) {
+        if (key == ranges[count - 1] && key != Long.MAX_VALUE) {
+          ranges[count - 1] = key + 1;
+        }
+        continue;
+      }
+      ranges[count++] = key;
+      ranges[count++] = key == Long.MAX_VALUE ? key : key + 1;
+    }
+    return Arrays.copyOf(ranges, count);
+  }
+
+  public void clear() {
+    size = 0;
+  }
+}
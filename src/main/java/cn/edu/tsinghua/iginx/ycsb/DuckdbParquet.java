@@ -8,10 +8,12 @@ import site.ycsb.ByteIterator;
 import site.ycsb.DBException;
 import site.ycsb.Status;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.*;
-import java.util.HashMap;
-import java.util.Set;
-import java.util.Vector;
+import java.util.*;
 
 public class DuckdbParquet extends Parquet {
 
@@ -23,17 +25,83 @@ public class DuckdbParquet extends Parquet {
   public static final String DUCKDB_LOAD_ONLY_DEFAULT = "false";
   public static final String DUCKDB_EXPLAIN = "parquet.duckdb.explain";
   public static final String DUCKDB_EXPLAIN_DEFAULT = "false";
+  public static final String DUCKDB_PREPARED = "parquet.duckdb.prepared";
+  public static final String DUCKDB_PREPARED_DEFAULT = "false";
+  public static final String DUCKDB_TABLE = "parquet.duckdb.table";
+  public static final String DUCKDB_TABLE_DEFAULT = "false";
+  public static final String DUCKDB_DATABASE = "parquet.duckdb.database";
+  public static final String DUCKDB_PROFILE = "parquet.duckdb.profile";
+  public static final String DUCKDB_PROFILE_DEFAULT = "false";
+  public static final String DUCKDB_PROFILE_SAMPLE = "parquet.duckdb.profile.sample";
+  public static final String DUCKDB_PROFILE_SAMPLE_DEFAULT = "100";
+  public static final String DUCKDB_PROFILE_OUTPUT = "parquet.duckdb.profile.output";
   private static final Logger logger = LoggerFactory.getLogger(DuckdbParquet.class);
+  private static final String PHASE_OPEN = "DUCKDB-OPEN";
+  private static final String PHASE_EXECUTE = "DUCKDB-EXECUTE";
+  private static final String PHASE_DECODE = "DUCKDB-DECODE";
+  private static final String TABLE_NAME = "ycsb";
+  private static Connection sharedDatabase = null;
+  private static int sharedDatabaseReferences = 0;
   private Connection conn = null;
 
+  private Connection preparedConn = null;
+
+  // prepared scans by fields and files to read
+  private final Map<List<Object>, PreparedScan> preparedScans = new HashMap<>();
+
   private boolean loadOnly = false;
 
   private boolean explain = false;
 
+  private boolean nativeTable = false;
+
+  private DuckdbProfile profile = null;
+
+  // the file DuckDB writes the profile of a sampled scan of this client into
+  private Path profilePath = null;
+
   private static Connection createDuckdbConnection() throws SQLException {
     return DriverManager.getConnection("jdbc:duckdb:");
   }
 
+  /**
+   * Opens the database file shared by all clients of the process, importing the Parquet source into a table sorted and
+   * indexed by key if the database does not hold it yet, and returns a connection of this client to it.
+   */
+  private static synchronized Connection acquireDatabase(String databasePath, String parquetSource) throws SQLException {
+    if (sharedDatabase == null) {
+      Connection database = DriverManager.getConnection("jdbc:duckdb:" + databasePath);
+      try (Statement stmt = database.createStatement()) {
+        boolean imported;
+        try (ResultSet rs = stmt.executeQuery(String.format("SELECT count(*) FROM information_schema.tables WHERE table_name = '%s';", TABLE_NAME))) {
+          imported = rs.next() && rs.getLong(1) > 0;
+        }
+        if (imported) {
+          logger.info("reuse table {} imported into {} before", TABLE_NAME, databasePath);
+        } else {
+          long start = System.currentTimeMillis();
+          stmt.execute(String.format("CREATE TABLE %s AS SELECT * FROM %s ORDER BY \"%s\";", TABLE_NAME, parquetSource, Constants.KEY_FIELD_NAME));
+          stmt.execute(String.format("CREATE INDEX %s_key ON %s (\"%s\");", TABLE_NAME, TABLE_NAME, Constants.KEY_FIELD_NAME));
+          stmt.execute("CHECKPOINT;");
+          logger.info("imported {} into {} in {} ms", parquetSource, databasePath, System.currentTimeMillis() - start);
+        }
+      } catch (SQLException e) {
+        database.close();
+        throw e;
+      }
+      sharedDatabase = database;
+    }
+    sharedDatabaseReferences++;
+    return ((DuckDBConnection) sharedDatabase).duplicate();
+  }
+
+  private static synchronized void releaseDatabase() throws SQLException {
+    if (--sharedDatabaseReferences == 0) {
+      sharedDatabase.close();
+      sharedDatabase = null;
+    }
+  }
+
   @Override
   public void init() throws DBException {
     super.init();
@@ -41,7 +109,16 @@ public class DuckdbParquet extends Parquet {
       Class.forName("org.duckdb.DuckDBDriver");
       String closedPerRead = getProperties().getProperty(DUCKDB_CLOSED_PER_READ, DUCKDB_CLOSED_PER_READ_DEFAULT);
       boolean isClosedPerRead = Boolean.parseBoolean(closedPerRead);
-      if (!isClosedPerRead) {
+      String tableString = getProperties().getProperty(DUCKDB_TABLE, DUCKDB_TABLE_DEFAULT);
+      if (Boolean.parseBoolean(tableString)) {
+        if (isClosedPerRead) {
+          logger.warn("{} is ignored with {}", DUCKDB_CLOSED_PER_READ, DUCKDB_TABLE);
+          isClosedPerRead = false;
+        }
+        String databasePath = getProperties().getProperty(DUCKDB_DATABASE, readPath + ".duckdb");
+        conn = acquireDatabase(databasePath, getParquetSource(getReadFiles(Long.MIN_VALUE, Long.MAX_VALUE)));
+        nativeTable = true;
+      } else if (!isClosedPerRead) {
         conn = createDuckdbConnection();
       }
       String enableObjectCache = getProperties().getProperty(DUCKDB_ENABLE_OBJECT_CACHE, DUCKDB_ENABLE_OBJECT_CACHE_DEFAULT);
@@ -55,37 +132,109 @@ public class DuckdbParquet extends Parquet {
       this.loadOnly = Boolean.parseBoolean(loadOnlyString);
       String explainString = getProperties().getProperty(DUCKDB_EXPLAIN, DUCKDB_EXPLAIN_DEFAULT);
       this.explain = Boolean.parseBoolean(explainString);
+      String profileString = getProperties().getProperty(DUCKDB_PROFILE, DUCKDB_PROFILE_DEFAULT);
+      if (Boolean.parseBoolean(profileString)) {
+        if (explain || loadOnly) {
+          logger.warn("{} is ignored with {} or {}", DUCKDB_PROFILE, DUCKDB_EXPLAIN, DUCKDB_LOAD_ONLY);
+        } else {
+          int sample = Integer.parseInt(getProperties().getProperty(DUCKDB_PROFILE_SAMPLE, DUCKDB_PROFILE_SAMPLE_DEFAULT));
+          String outputString = getProperties().getProperty(DUCKDB_PROFILE_OUTPUT);
+          profilePath = Files.createTempFile("ycsb-duckdb-profile-", ".json");
+          List<Path> files = nativeTable ? Collections.emptyList() : getReadFiles(Long.MIN_VALUE, Long.MAX_VALUE);
+          profile = DuckdbProfile.acquireShared(sample, files, outputString == null ? null : Paths.get(outputString));
+        }
+      }
+      String preparedString = getProperties().getProperty(DUCKDB_PREPARED, DUCKDB_PREPARED_DEFAULT);
+      if (Boolean.parseBoolean(preparedString)) {
+        if (isClosedPerRead || loadOnly || explain) {
+          logger.warn("{} is ignored with {}, {} or {}", DUCKDB_PREPARED, DUCKDB_CLOSED_PER_READ, DUCKDB_LOAD_ONLY, DUCKDB_EXPLAIN);
+        } else {
+          preparedConn = getDuckdbConnection();
+        }
+      }
     } catch (Exception e) {
-      throw new DBException("failed to init super", e);
+      DBException exception = new DBException("failed to init super", e);
+      // releases the shared database and profile, as cleanup() is not called after a failed init()
+      try {
+        closeDuckdb();
+      } catch (DBException suppressed) {
+        exception.addSuppressed(suppressed);
+      }
+      throw exception;
     }
   }
 
   @Override
   public void cleanup() throws DBException {
     super.cleanup();
+    closeDuckdb();
+  }
+
+  private void closeDuckdb() throws DBException {
     try {
-      conn.close();
+      for (PreparedScan preparedScan : preparedScans.values()) {
+        preparedScan.statement.close();
+      }
+      preparedScans.clear();
+      if (preparedConn != null) {
+        preparedConn.close();
+        preparedConn = null;
+      }
+      if (conn != null) {
+        conn.close();
+        conn = null;
+      }
+      if (nativeTable) {
+        nativeTable = false;
+        releaseDatabase();
+      }
     } catch (SQLException e) {
       logger.error("failed to close connection", e);
       throw new DBException("failed to close connection", e);
     }
+    try {
+      if (profilePath != null) {
+        Files.deleteIfExists(profilePath);
+        profilePath = null;
+      }
+      if (profile != null) {
+        profile = null;
+        DuckdbProfile.releaseShared();
+      }
+    } catch (IOException e) {
+      throw new DBException("failed to write profile summary", e);
+    }
   }
 
   @Override
   protected Status doScan(Set<String> fields, Vector<HashMap<String, ByteIterator>> result, long start, long interval) {
-    if (fields != null) {
-      return Status.NOT_IMPLEMENTED;
+    if (preparedConn != null) {
+      return doPreparedScan(fields, result, start, interval);
+    }
+    long end = start + interval < start ? Long.MAX_VALUE : start + interval;
+    List<Path> files = nativeTable ? null : getReadFiles(start, end);
+    if (files != null && files.isEmpty()) {
+      return Status.NOT_FOUND;
     }
+    String source = nativeTable ? TABLE_NAME : getParquetSource(files);
+    long phaseStart = phaseTimer.start();
     try (Connection conn = getDuckdbConnection()) {
-      String sql = String.format("SELECT * FROM read_parquet('%s',binary_as_string=true) WHERE \"*\" >= %d AND \"*\" < %d;", readPath.toString(), start, start + interval);
+      boolean profiled = profile != null && profile.sample();
+      if (profiled) {
+        DuckdbProfile.enable(conn, profilePath);
+      }
+      phaseStart = phaseTimer.measure(PHASE_OPEN, phaseStart);
+      String sql = String.format("SELECT %s FROM %s WHERE \"*\" >= %d AND \"*\" < %d;", getSelectList(fields), source, start, end);
       if (loadOnly) {
-        sql = "DROP TABLE IF EXISTS test; CREATE TABLE test AS " + sql;
+        // a temporary table is private to the connection and never written into a database file
+        sql = "DROP TABLE IF EXISTS temp.test; CREATE TEMP TABLE test AS " + sql;
       }
       if (explain) {
         sql = "EXPLAIN ANALYZE " + sql;
       }
       try (Statement stmt = conn.createStatement()) {
         stmt.execute(sql);
+        phaseStart = phaseTimer.measure(PHASE_EXECUTE, phaseStart);
         try (ResultSet rs = stmt.getResultSet()) {
           if (rs != null) {
             ResultSetMetaData rsMetaData = rs.getMetaData();
@@ -101,11 +250,10 @@ public class DuckdbParquet extends Parquet {
                   continue;
                 }
                 String fieldName = CoreUtils.getFieldName(parquetFieldName);
-                Object value = rs.getObject(i);
-                if (value == null) {
+                ByteIterator byteIterator = getByteIterator(rs, i);
+                if (byteIterator == null) {
                   continue;
                 }
-                ByteIterator byteIterator = CoreUtils.getByteIterator(((String) value).getBytes());
                 map.put(fieldName, byteIterator);
               }
               result.add(map);
@@ -113,6 +261,99 @@ public class DuckdbParquet extends Parquet {
           }
         }
       }
+      phaseTimer.measure(PHASE_DECODE, phaseStart);
+      if (profiled) {
+        profile.add(profilePath, files == null ? null : new HashSet<>(files), start, end);
+      }
+      if (result.isEmpty()) {
+        return Status.NOT_FOUND;
+      }
+      return Status.OK;
+    } catch (Exception e) {
+      logger.error("failed to scan", e);
+      return Status.ERROR;
+    }
+  }
+
+  private static ByteIterator getByteIterator(ResultSet rs, int column) throws SQLException {
+    Blob blob = rs.getBlob(column);
+    if (blob == null) {
+      return null;
+    }
+    return CoreUtils.getByteIterator(blob.getBytes(1, (int) blob.length()));
+  }
+
+  private static String getParquetSource(List<Path> files) {
+    if (files.size() == 1) {
+      return String.format("read_parquet('%s')", files.get(0));
+    }
+    StringJoiner joiner = new StringJoiner(",", "read_parquet([", "])");
+    for (Path file : files) {
+      joiner.add("'" + file + "'");
+    }
+    return joiner.toString();
+  }
+
+  private String getSelectList(Set<String> fields) {
+    List<String> columns = getParquetColumns(fields);
+    if (columns == null) {
+      return "*";
+    }
+    StringJoiner joiner = new StringJoiner(",");
+    for (String column : columns) {
+      joiner.add("\"" + column + "\"");
+    }
+    return joiner.toString();
+  }
+
+  private Status doPreparedScan(Set<String> fields, Vector<HashMap<String, ByteIterator>> result, long start, long interval) {
+    long end = start + interval < start ? Long.MAX_VALUE : start + interval;
+    try {
+      List<Path> files = nativeTable ? Collections.emptyList() : getReadFiles(start, end);
+      if (!nativeTable && files.isEmpty()) {
+        return Status.NOT_FOUND;
+      }
+      long phaseStart = phaseTimer.start();
+      PreparedScan preparedScan = preparedScans.get(Arrays.asList(fields, files));
+      if (preparedScan == null) {
+        String source = nativeTable ? TABLE_NAME : getParquetSource(files);
+        String sql = String.format("SELECT %s FROM %s WHERE \"*\" >= ? AND \"*\" < ?;", getSelectList(fields), source);
+        preparedScan = new PreparedScan(preparedConn.prepareStatement(sql));
+        preparedScans.put(Arrays.asList(fields == null ? null : new HashSet<>(fields), files), preparedScan);
+        phaseStart = phaseTimer.measure(PHASE_OPEN, phaseStart);
+      }
+      PreparedStatement statement = preparedScan.statement;
+      statement.setLong(1, start);
+      statement.setLong(2, end);
+      boolean profiled = profile != null && profile.sample();
+      if (profiled) {
+        DuckdbProfile.enable(preparedConn, profilePath);
+      }
+      try (ResultSet rs = statement.executeQuery()) {
+        phaseStart = phaseTimer.measure(PHASE_EXECUTE, phaseStart);
+        if (preparedScan.columns == null) {
+          preparedScan.resolveColumns(rs.getMetaData());
+        }
+        while (rs.next()) {
+          HashMap<String, ByteIterator> map = new HashMap<>();
+          for (int i = 0; i < preparedScan.columns.length; i++) {
+            ByteIterator byteIterator = getByteIterator(rs, preparedScan.columns[i]);
+            if (byteIterator == null) {
+              continue;
+            }
+            map.put(preparedScan.fieldNames[i], byteIterator);
+          }
+          result.add(map);
+        }
+      } finally {
+        if (profiled) {
+          DuckdbProfile.disable(preparedConn);
+        }
+      }
+      phaseTimer.measure(PHASE_DECODE, phaseStart);
+      if (profiled) {
+        profile.add(profilePath, nativeTable ? null : new HashSet<>(files), start, end);
+      }
       if (result.isEmpty()) {
         return Status.NOT_FOUND;
       }
@@ -129,4 +370,31 @@ public class DuckdbParquet extends Parquet {
     }
     return createDuckdbConnection();
   }
+
+  private static class PreparedScan {
+    private final PreparedStatement statement;
+    private int[] columns = null;
+    private String[] fieldNames = null;
+
+    private PreparedScan(PreparedStatement statement) {
+      this.statement = statement;
+    }
+
+    private void resolveColumns(ResultSetMetaData rsMetaData) throws SQLException {
+      int[] columns = new int[rsMetaData.getColumnCount()];
+      String[] fieldNames = new String[rsMetaData.getColumnCount()];
+      int count = 0;
+      for (int i = 1; i <= rsMetaData.getColumnCount(); i++) {
+        String parquetFieldName = rsMetaData.getColumnName(i);
+        if (parquetFieldName.equals(Constants.KEY_FIELD_NAME)) {
+          continue;
+        }
+        columns[count] = i;
+        fieldNames[count] = CoreUtils.getFieldName(parquetFieldName);
+        count++;
+      }
+      this.columns = Arrays.copyOf(columns, count);
+      this.fieldNames = Arrays.copyOf(fieldNames, count);
+    }
+  }
 }
@@ -0,0 +1,238 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Summary of the JSON profiles DuckDB writes for every Nth scan of all clients of the process: the time and rows of each
+ * operator, and how many scans had the key filter pushed down, with the rows they scanned and returned, all as DuckDB
+ * reports them. Since DuckDB does not report what it prunes, the files and row groups whose footer statistics do not
+ * overlap the key range of a scan are counted apart as prunable. The key ranges of the row groups are read once when
+ * the profile is created, so that a sampled scan only parses its profile. The summary is
+ * logged, and written as JSON if an output path is given, when the last client releases it.
+ */
+public class DuckdbProfile {
+
+  private static final Logger logger = LoggerFactory.getLogger(DuckdbProfile.class);
+
+  private static DuckdbProfile shared = null;
+
+  private static int sharedReferences = 0;
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  private final int sampleInterval;
+
+  private final Path outputPath;
+
+  private final AtomicLong queries = new AtomicLong();
+
+  private final Map<String, OperatorSummary> operators = new TreeMap<>();
+
+  // key ranges of the row groups by file of the dataset, as the minimum and maximum keys
+  private final Map<Path, long[][]> keyRanges = new HashMap<>();
+
+  private long profiles = 0;
+
+  private double seconds = 0;
+
+  private long rows = 0;
+
+  private long scans = 0;
+
+  private long pushedScans = 0;
+
+  private long scannedRows = 0;
+
+  private long scanReturnedRows = 0;
+
+  private long files = 0;
+
+  private long prunableFiles = 0;
+
+  private long rowGroups = 0;
+
+  private long prunableRowGroups = 0;
+
+  /**
+   * @param files      the Parquet files of the dataset, or none if scans read a table
+   * @param outputPath the file to write the summary into, or null to only log it
+   */
+  public DuckdbProfile(int sampleInterval, List<Path> files, Path outputPath) throws IOException {
+    if (sampleInterval < 1) {
+      throw new IllegalArgumentException("sample interval should be positive, but: " + sampleInterval);
+    }
+    this.sampleInterval = sampleInterval;
+    this.outputPath = outputPath;
+    for (Path file : files) {
+      try (IndexedParquetReader reader = new IndexedParquetReader(file)) {
+        keyRanges.put(file, reader.getKeyRanges());
+      }
+    }
+  }
+
+  public static synchronized DuckdbProfile acquireShared(int sampleInterval, List<Path> files, Path outputPath) throws IOException {
+    if (shared == null) {
+      shared = new DuckdbProfile(sampleInterval, files, outputPath);
+      logger.info("profile 1 of every {} DuckDB scans", sampleInterval);
+    }
+    sharedReferences++;
+    return shared;
+  }
+
+  /**
+   * Releases the shared profile, writing out the summary if this is the last reference.
+   */
+  public static synchronized void releaseShared() throws IOException {
+    if (--sharedReferences > 0) {
+      return;
+    }
+    DuckdbProfile profile = shared;
+    shared = null;
+    profile.close();
+  }
+
+  /**
+   * Returns whether the next query should be profiled.
+   */
+  public boolean sample() {
+    return queries.getAndIncrement() % sampleInterval == 0;
+  }
+
+  /**
+   * Makes DuckDB write the JSON profile of each following query on the connection into the file.
+   */
+  public static void enable(Connection conn, Path profilePath) throws SQLException {
+    try (Statement stmt = conn.createStatement()) {
+      stmt.execute("PRAGMA enable_profiling = 'json';");
+      stmt.execute(String.format("PRAGMA profile_output = '%s';", profilePath));
+    }
+  }
+
+  public static void disable(Connection conn) throws SQLException {
+    try (Statement stmt = conn.createStatement()) {
+      stmt.execute("PRAGMA disable_profiling;");
+    }
+  }
+
+  /**
+   * Adds the profile of a scan of keys in {@code [start, end)}.
+   *
+   * @param readFiles the files the scan read, or null if it read a table
+   */
+  public void add(Path profilePath, Set<Path> readFiles, long start, long end) throws IOException {
+    JsonNode root = mapper.readTree(profilePath.toFile());
+    synchronized (this) {
+      profiles++;
+      seconds += getNumber(root, "latency", "timing");
+      rows += (long) getNumber(root, "rows_returned", "cardinality");
+      for (JsonNode child : root.path("children")) {
+        addOperator(child);
+      }
+      if (readFiles != null) {
+        files += keyRanges.size();
+        prunableFiles += keyRanges.size() - readFiles.size();
+        for (Map.Entry<Path, long[][]> entry : keyRanges.entrySet()) {
+          long[] mins = entry.getValue()[0];
+          long[] maxs = entry.getValue()[1];
+          rowGroups += mins.length;
+          boolean read = readFiles.contains(entry.getKey());
+          for (int i = 0; i < mins.length; i++) {
+            if (!read || mins[i] >= end || maxs[i] < start) {
+              prunableRowGroups++;
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private void addOperator(JsonNode node) {
+    String name = getText(node, "operator_name", "name").trim();
+    long cardinality = (long) getNumber(node, "operator_cardinality", "cardinality");
+    OperatorSummary summary = operators.computeIfAbsent(name, k -> new OperatorSummary());
+    summary.count++;
+    summary.seconds += getNumber(node, "operator_timing", "timing");
+    summary.rows += cardinality;
+    if (name.contains("SCAN")) {
+      scans++;
+      scannedRows += node.path("operator_rows_scanned").asLong();
+      scanReturnedRows += cardinality;
+      JsonNode extraInfo = node.path("extra_info");
+      if (extraInfo.isObject() ? extraInfo.has("Filters") : extraInfo.asText().contains("Filters")) {
+        pushedScans++;
+      }
+    }
+    for (JsonNode child : node.path("children")) {
+      addOperator(child);
+    }
+  }
+
+  // the names of the fields differ between versions of DuckDB
+  private static double getNumber(JsonNode node, String name, String oldName) {
+    return (node.has(name) ? node.get(name) : node.path(oldName)).asDouble();
+  }
+
+  private static String getText(JsonNode node, String name, String oldName) {
+    return (node.has(name) ? node.get(name) : node.path(oldName)).asText();
+  }
+
+  private synchronized void close() throws IOException {
+    logger.info("profiled {} of {} scans, {} ms and {} rows on average", profiles, queries.get(),
+        profiles == 0 ? 0 : seconds * 1000 / profiles, profiles == 0 ? 0 : rows / profiles);
+    logger.info("key filter pushed into {} of {} scans, {} rows scanned and {} rows returned by the scans",
+        pushedScans, scans, scannedRows, scanReturnedRows);
+    logger.info("{} of {} files and {} of {} row groups prunable by key range from their footer statistics",
+        prunableFiles, files, prunableRowGroups, rowGroups);
+    Map<String, Object> operatorMap = new LinkedHashMap<>();
+    for (Map.Entry<String, OperatorSummary> entry : operators.entrySet()) {
+      OperatorSummary summary = entry.getValue();
+      logger.info("operator {}: {} times, {} ms, {} rows", entry.getKey(), summary.count, summary.seconds * 1000, summary.rows);
+      Map<String, Object> map = new LinkedHashMap<>();
+      map.put("count", summary.count);
+      map.put("ms", summary.seconds * 1000);
+      map.put("rows", summary.rows);
+      operatorMap.put(entry.getKey(), map);
+    }
+    if (outputPath == null) {
+      return;
+    }
+    Map<String, Object> summary = new LinkedHashMap<>();
+    summary.put("queries", queries.get());
+    summary.put("profiled", profiles);
+    summary.put("ms", seconds * 1000);
+    summary.put("rows", rows);
+    summary.put("scans", scans);
+    summary.put("pushed_scans", pushedScans);
+    summary.put("scanned_rows", scannedRows);
+    summary.put("scan_returned_rows", scanReturnedRows);
+    summary.put("files", files);
+    summary.put("prunable_files", prunableFiles);
+    summary.put("row_groups", rowGroups);
+    summary.put("prunable_row_groups", prunableRowGroups);
+    summary.put("operators", operatorMap);
+    mapper.writerWithDefaultPrettyPrinter().writeValue(outputPath.toFile(), summary);
+    logger.info("wrote DuckDB profile summary into {}", outputPath);
+  }
+
+  private static class OperatorSummary {
+    private long count = 0;
+    private double seconds = 0;
+    private long rows = 0;
+  }
+}
@@ -0,0 +1,244 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+import cn.edu.tsinghua.iginx.parquet.io.parquet.IParquetWriter;
+import cn.edu.tsinghua.iginx.parquet.io.parquet.IRecord;
+import cn.edu.tsinghua.iginx.parquet.shared.Constants;
+import org.apache.parquet.column.ParquetProperties;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.SimpleGroupFactory;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.example.ExampleParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.LocalOutputFile;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writer of dump files. Files are written by the IGinX writer unless any of the layout is set: compression, dictionary
+ * encoding, writer version, a bloom filter on the key column or the number of rows per page, which bounds the
+ * granularity of the column and offset indexes. Then they are written by parquet-mr with that layout.
+ */
+public class DumpWriter implements AutoCloseable {
+
+  private final IParquetWriter iginxWriter;
+
+  private final ParquetWriter<Group> writer;
+
+  private final SimpleGroupFactory groupFactory;
+
+  private final PrimitiveType.PrimitiveTypeName[] types;
+
+  private long rows = 0;
+
+  private DumpWriter(IParquetWriter iginxWriter) {
+    this.iginxWriter = iginxWriter;
+    this.writer = null;
+    this.groupFactory = null;
+    this.types = null;
+  }
+
+  private DumpWriter(ParquetWriter<Group> writer, MessageType schema) {
+    this.iginxWriter = null;
+    this.writer = writer;
+    this.groupFactory = new SimpleGroupFactory(schema);
+    this.types = new PrimitiveType.PrimitiveTypeName[schema.getFieldCount()];
+    for (int i = 0; i < types.length; i++) {
+      types[i] = schema.getType(i).asPrimitiveType().getPrimitiveTypeName();
+    }
+  }
+
+  public static Builder builder(Path path, MessageType schema) {
+    return new Builder(path, schema);
+  }
+
+  public void write(IRecord record) throws IOException {
+    if (iginxWriter != null) {
+      iginxWriter.write(record);
+      rows++;
+      return;
+    }
+    Group group = groupFactory.newGroup();
+    for (Map.Entry<Integer, Object> entry : record) {
+      int index = entry.getKey();
+      Object value = entry.getValue();
+      if (value == null) {
+        continue;
+      }
+      switch (types[index]) {
+        case BOOLEAN:
+          group.add(index, (Boolean) value);
+          break;
+        case INT32:
+          group.add(index, ((Number) value).intValue());
+          break;
+        case INT64:
+          group.add(index, ((Number) value).longValue());
+          break;
+        case FLOAT:
+          group.add(index, ((Number) value).floatValue());
+          break;
+        case DOUBLE:
+          group.add(index, ((Number) value).doubleValue());
+          break;
+        case BINARY:
+          group.add(index, Binary.fromConstantByteArray((byte[]) value));
+          break;
+        default:
+          throw new IOException("unsupported type of field " + index + ": " + types[index]);
+      }
+    }
+    writer.write(group);
+    rows++;
+  }
+
+  public long getRows() {
+    return rows;
+  }
+
+  /**
+   * Writes the size and write throughput of a finished dump, its data files, together with its layout into
+   * {@code <dump>.summary}, and returns the summary.
+   */
+  public static String writeSummary(Path dumpPath, List<Path> files, Builder layout, long rows, long nanos) throws IOException {
+    return writeSummary(dumpPath, files, layout.toSummary(), rows, nanos);
+  }
+
+  /**
+   * Same as {@link #writeSummary(Path, List, Builder, long, long)} for a dump not written by this writer, described by
+   * the given layout fields.
+   */
+  public static String writeSummary(Path dumpPath, List<Path> files, Map<String, Object> layout, long rows, long nanos) throws IOException {
+    long bytes = 0;
+    for (Path file : files) {
+      bytes += Files.size(file);
+    }
+    double seconds = Math.max(nanos, 1) / 1e9;
+    Map<String, Object> summary = new LinkedHashMap<>();
+    summary.put("path", dumpPath);
+    summary.put("files", files.size());
+    summary.put("rows", rows);
+    summary.put("bytes", bytes);
+    summary.put("seconds", String.format("%.3f", seconds));
+    summary.put("rows_per_second", String.format("%.1f", rows / seconds));
+    summary.put("mib_per_second", String.format("%.3f", bytes / seconds / (1 << 20)));
+    summary.putAll(layout);
+
+    StringBuilder text = new StringBuilder();
+    for (Map.Entry<String, Object> entry : summary.entrySet()) {
+      text.append(entry.getKey()).append('=').append(entry.getValue()).append(System.lineSeparator());
+    }
+    Path summaryPath = dumpPath.resolveSibling(dumpPath.getFileName() + ".summary");
+    Files.write(summaryPath, text.toString().getBytes(StandardCharsets.UTF_8));
+    return text.toString();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (iginxWriter != null) {
+      iginxWriter.close();
+    } else {
+      writer.close();
+    }
+  }
+
+  public static class Builder {
+    private final Path path;
+    private final MessageType schema;
+    private int pageSize = ParquetWriter.DEFAULT_PAGE_SIZE;
+    private long rowGroupSize = ParquetWriter.DEFAULT_BLOCK_SIZE;
+    private int pageRowCountLimit = ParquetProperties.DEFAULT_PAGE_ROW_COUNT_LIMIT;
+    private CompressionCodecName codec = CompressionCodecName.UNCOMPRESSED;
+    private boolean dictionary = true;
+    private ParquetProperties.WriterVersion writerVersion = ParquetProperties.WriterVersion.PARQUET_1_0;
+    private boolean keyBloomFilter = false;
+    private boolean customLayout = false;
+
+    private Builder(Path path, MessageType schema) {
+      this.path = path;
+      this.schema = schema;
+    }
+
+    public Builder withPageSize(int pageSize) {
+      this.pageSize = pageSize;
+      return this;
+    }
+
+    public Builder withRowGroupSize(long rowGroupSize) {
+      this.rowGroupSize = rowGroupSize;
+      return this;
+    }
+
+    public Builder withPageRowCountLimit(int pageRowCountLimit) {
+      this.pageRowCountLimit = pageRowCountLimit;
+      this.customLayout = true;
+      return this;
+    }
+
+    public Builder withCompressionCodec(CompressionCodecName codec) {
+      this.codec = codec;
+      this.customLayout = true;
+      return this;
+    }
+
+    public Builder withDictionaryEncoding(boolean dictionary) {
+      this.dictionary = dictionary;
+      this.customLayout = true;
+      return this;
+    }
+
+    public Builder withWriterVersion(ParquetProperties.WriterVersion writerVersion) {
+      this.writerVersion = writerVersion;
+      this.customLayout = true;
+      return this;
+    }
+
+    public Builder withKeyBloomFilter(boolean keyBloomFilter) {
+      this.keyBloomFilter = keyBloomFilter;
+      this.customLayout = true;
+      return this;
+    }
+
+    private Map<String, Object> toSummary() {
+      Map<String, Object> summary = new LinkedHashMap<>();
+      summary.put("writer", customLayout ? "parquet-mr" : "iginx");
+      if (customLayout) {
+        summary.put("compression", codec);
+        summary.put("dictionary", dictionary);
+        summary.put("writer_version", writerVersion);
+        summary.put("key_bloom_filter", keyBloomFilter);
+        summary.put("page_rows", pageRowCountLimit);
+      }
+      summary.put("page_size", pageSize);
+      summary.put("row_group_size", rowGroupSize);
+      return summary;
+    }
+
+    public DumpWriter build() throws IOException {
+      if (!customLayout) {
+        return new DumpWriter(IParquetWriter.builder(path, schema).withPageSize(pageSize).withRowGroupSize(rowGroupSize).build());
+      }
+      ParquetWriter<Group> writer = ExampleParquetWriter.builder(new LocalOutputFile(path))
+          .withType(schema)
+          .withWriteMode(ParquetFileWriter.Mode.OVERWRITE)
+          .withPageSize(pageSize)
+          .withRowGroupSize(rowGroupSize)
+          .withPageRowCountLimit(pageRowCountLimit)
+          .withCompressionCodec(codec)
+          .withDictionaryEncoding(dictionary)
+          .withWriterVersion(writerVersion)
+          .withBloomFilterEnabled(Constants.KEY_FIELD_NAME, keyBloomFilter)
+          .build();
+      return new DumpWriter(writer, schema);
+    }
+  }
+}
@@ -2,18 +2,31 @@ package cn.edu.tsinghua.iginx.ycsb;
 
 import cn.edu.tsinghua.iginx.exceptions.ExecutionException;
 import cn.edu.tsinghua.iginx.exceptions.SessionException;
+import cn.edu.tsinghua.iginx.session.QueryDataSet;
 import cn.edu.tsinghua.iginx.session.Session;
 import cn.edu.tsinghua.iginx.session.SessionQueryDataSet;
 import cn.edu.tsinghua.iginx.thrift.DataType;
+import org.apache.thrift.transport.TTransportException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import site.ycsb.ByteIterator;
+import site.ycsb.Client;
 import site.ycsb.DB;
 import site.ycsb.DBException;
 import site.ycsb.Status;
+import site.ycsb.Workload;
+import site.ycsb.measurements.Measurements;
+import site.ycsb.workloads.CoreWorkload;
 
+import java.io.IOException;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class IGinXClient extends DB {
 
@@ -27,25 +40,114 @@ public class IGinXClient extends DB {
   public static final String PASSWORD_PROPERTY_DEFAULT = "root";
   public static final String CLIENT_PROPERTY = "iginx.buffersize";
   public static final String CLIENT_PROPERTY_DEFAULT = "0";
+  public static final String BUFFER_ADAPTIVE_PROPERTY = "iginx.buffer.adaptive";
+  public static final String BUFFER_ADAPTIVE_PROPERTY_DEFAULT = "false";
+  public static final String BUFFER_MIN_PROPERTY = "iginx.buffer.min";
+  public static final String BUFFER_MIN_PROPERTY_DEFAULT = "1000";
+  public static final String BUFFER_MAX_PROPERTY = "iginx.buffer.max";
+  public static final String BUFFER_MAX_PROPERTY_DEFAULT = "100000";
+  public static final String BUFFER_STEP_PROPERTY = "iginx.buffer.step";
+  public static final String BUFFER_TARGET_PROPERTY = "iginx.buffer.target";
+  public static final String BUFFER_TARGET_PROPERTY_DEFAULT = "100";
+  public static final String BUFFER_MAX_WAIT_PROPERTY = "iginx.buffer.maxwait";
+  public static final String BUFFER_MAX_WAIT_PROPERTY_DEFAULT = "0";
+  public static final String BATCHER_SHARED_PROPERTY = "iginx.batcher.shared";
+  public static final String BATCHER_SHARED_PROPERTY_DEFAULT = "false";
+  public static final String BATCHER_SHARDS_PROPERTY = "iginx.batcher.shards";
+  public static final String BATCHER_SHARDS_PROPERTY_DEFAULT = "16";
+  public static final String BATCHER_BOUNDARIES_PROPERTY = "iginx.batcher.boundaries";
+  public static final String BATCHER_SIZE_PROPERTY = "iginx.batcher.size";
+  public static final String BATCHER_SIZE_PROPERTY_DEFAULT = "10000";
+  public static final String BATCHER_INTERVAL_PROPERTY = "iginx.batcher.interval";
+  public static final String BATCHER_INTERVAL_PROPERTY_DEFAULT = "1000";
+  public static final String BATCHER_THREADS_PROPERTY = "iginx.batcher.threads";
   public static final String INSERT_BY_COLUMN = "iginx.insertbycolumn";
   public static final String INSERT_BY_COLUMN_DEFAULT = "false";
+  public static final String ASYNC_FLUSH = "iginx.flush.async";
+  public static final String ASYNC_FLUSH_DEFAULT = "false";
+  public static final String FLUSH_INFLIGHT = "iginx.flush.inflight";
+  public static final String FLUSH_INFLIGHT_DEFAULT = "1";
+  public static final String ENDPOINTS_PROPERTY = "iginx.endpoints";
+  public static final String POOL_SIZE_PROPERTY = "iginx.pool.size";
+  public static final String POOL_SIZE_PROPERTY_DEFAULT = "0";
+  public static final String POOL_STRATEGY_PROPERTY = "iginx.pool.strategy";
+  public static final String POOL_STRATEGY_PROPERTY_DEFAULT = "round_robin";
+  public static final String MEASURE_PHASES = "iginx.measure.phases";
+  public static final String MEASURE_PHASES_DEFAULT = "false";
+  public static final String SCAN_STREAMING_PROPERTY = "iginx.scan.streaming";
+  public static final String SCAN_STREAMING_PROPERTY_DEFAULT = "false";
+  public static final String SCAN_FETCH_SIZE_PROPERTY = "iginx.scan.fetchsize";
+  public static final String SCAN_FETCH_SIZE_PROPERTY_DEFAULT = "1000";
+  public static final String DELETE_BUFFER_SIZE_PROPERTY = "iginx.delete.buffersize";
+  public static final String DELETE_BUFFER_SIZE_PROPERTY_DEFAULT = "0";
+  public static final String DELETE_INTERVAL_PROPERTY = "iginx.delete.interval";
+  public static final String DELETE_INTERVAL_PROPERTY_DEFAULT = "1000";
+  public static final String CACHE_SIZE_PROPERTY = "iginx.cache.size";
+  public static final String CACHE_SIZE_PROPERTY_DEFAULT = "0";
+  public static final String CACHE_SHARDS_PROPERTY = "iginx.cache.shards";
+  public static final String CACHE_SHARDS_PROPERTY_DEFAULT = "16";
+  public static final String STAND_IN_PROPERTY = "iginx.standin";
+  public static final String STAND_IN_PROPERTY_DEFAULT = "false";
+  public static final String STAND_IN_LATENCY_PROPERTY = "iginx.standin.latency";
+  public static final String STAND_IN_LATENCY_PROPERTY_DEFAULT = "0";
+  private static final String PHASE_BUFFER_INSERT = "IGINX-BUFFER-INSERT";
+  private static final String PHASE_PACK_INSERT = "IGINX-PACK-INSERT";
+  private static final String PHASE_RPC_INSERT = "IGINX-RPC-INSERT";
+  private static final String PHASE_RPC_SCAN = "IGINX-RPC-SCAN";
+  private static final String PHASE_DECODE_SCAN = "IGINX-DECODE-SCAN";
+  private static final String PHASE_FIRST_ROW_SCAN = "IGINX-FIRST-ROW-SCAN";
+  private static final String PHASE_STREAM_SCAN = "IGINX-STREAM-SCAN";
+  private static final String PHASE_RPC_DELETE = "IGINX-RPC-DELETE";
+  private static final String CACHE_HIT = "IGINX-CACHE-HIT";
+  private static final String CACHE_MISS = "IGINX-CACHE-MISS";
+  private static final String CACHE_EVICT = "IGINX-CACHE-EVICT";
   private static final Logger logger = LoggerFactory.getLogger(IGinXClient.class);
-  private final Map<Long, Map<String, byte[]>> buffer = new HashMap<>();
+  private final AtomicReference<Exception> flushError = new AtomicReference<>();
+  // guards the insert and delete buffers against the flusher flushing them once they waited too long
+  private final ReentrantLock bufferLock = new ReentrantLock();
+  private InsertBuffer buffer;
   private int clientBufferSize;
+  private AdaptiveBatchSize adaptiveBatchSize;
+  private long bufferMaxWaitNanos;
+  private long bufferStartNanos;
   private boolean insertByColumn;
   private Session session;
-  private int bufferPoints = 0;
+  private String tableName;
+  private String fieldNamePrefix;
+  private List<String> pathList;
+  private SessionPool pool;
+  private Session flushSession;
+  private ScheduledExecutorService flusher;
+  private BlockingQueue<InsertBuffer> freeBuffers;
+  private PhaseTimer phaseTimer;
+  private boolean standIn;
+  private boolean scanStreaming;
+  private int scanFetchSize;
+  private ReadCache cache;
+  private DeleteBuffer deleteBuffer;
+  private int deleteBufferSize;
+  private long deleteIntervalNanos;
+  private Measurements measurements;
+  private SharedBatcher batcher;
+  private KeyCodec keyCodec;
 
-  private static Map<String, Integer> getIndexMap(List<String> pathList) {
-    Map<String, Integer> pathIndexMap = new HashMap<>();
-    for (int i = 0; i < pathList.size(); i++) {
-      pathIndexMap.put(pathList.get(i), i);
+  @Override
+  public void init() throws DBException {
+    try {
+      initClient();
+    } catch (DBException | RuntimeException e) {
+      // releases what was acquired before the failure, as cleanup() is not called after a failed init()
+      try {
+        releaseBatcher();
+        closeResources();
+      } catch (DBException suppressed) {
+        e.addSuppressed(suppressed);
+      }
+      throw e;
     }
-    return pathIndexMap;
   }
 
-  @Override
-  public void init() throws DBException {
+  private void initClient() throws DBException {
     int port;
     try {
       port = Integer.parseInt(getProperties().getProperty(PORT_PROPERTY, PORT_PROPERTY_DEFAULT));
@@ -55,39 +157,391 @@ public class IGinXClient extends DB {
     String host = getProperties().getProperty(HOST_PROPERTY, HOST_PROPERTY_DEFAULT);
     String user = getProperties().getProperty(USER_PROPERTY, USER_PROPERTY_DEFAULT);
     String password = getProperties().getProperty(PASSWORD_PROPERTY, PASSWORD_PROPERTY_DEFAULT);
+    String endpointsString = getProperties().getProperty(ENDPOINTS_PROPERTY, host + ":" + port);
+    if (Boolean.parseBoolean(getProperties().getProperty(STAND_IN_PROPERTY, STAND_IN_PROPERTY_DEFAULT))) {
+      long latency;
+      try {
+        latency = Long.parseLong(getProperties().getProperty(STAND_IN_LATENCY_PROPERTY, STAND_IN_LATENCY_PROPERTY_DEFAULT));
+      } catch (NumberFormatException e) {
+        throw new DBException("fail to parse `iginx.standin.latency`", e);
+      }
+      IGinXStandIn server;
+      try {
+        server = IGinXStandIn.acquireShared(port, latency);
+      } catch (TTransportException e) {
+        throw new DBException("fail to start stand-in of IGinX", e);
+      }
+      this.standIn = true;
+      host = server.getHost();
+      port = server.getPort();
+      endpointsString = server.getAddress();
+    }
 
     this.clientBufferSize = Integer.parseInt(getProperties().getProperty(CLIENT_PROPERTY, CLIENT_PROPERTY_DEFAULT));
+    try {
+      this.bufferMaxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(getProperties().getProperty(BUFFER_MAX_WAIT_PROPERTY, BUFFER_MAX_WAIT_PROPERTY_DEFAULT)));
+      if (Boolean.parseBoolean(getProperties().getProperty(BUFFER_ADAPTIVE_PROPERTY, BUFFER_ADAPTIVE_PROPERTY_DEFAULT))) {
+        int min = Integer.parseInt(getProperties().getProperty(BUFFER_MIN_PROPERTY, BUFFER_MIN_PROPERTY_DEFAULT));
+        int max = Integer.parseInt(getProperties().getProperty(BUFFER_MAX_PROPERTY, BUFFER_MAX_PROPERTY_DEFAULT));
+        int step = Integer.parseInt(getProperties().getProperty(BUFFER_STEP_PROPERTY, String.valueOf(min)));
+        long target = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(getProperties().getProperty(BUFFER_TARGET_PROPERTY, BUFFER_TARGET_PROPERTY_DEFAULT)));
+        this.adaptiveBatchSize = new AdaptiveBatchSize(clientBufferSize > 0 ? clientBufferSize : min, min, max, step, target);
+      }
+    } catch (NumberFormatException e) {
+      throw new DBException("fail to parse `iginx.buffer.*`", e);
+    } catch (IllegalArgumentException e) {
+      throw new DBException("fail to create adaptive insert buffer", e);
+    }
     this.insertByColumn = Boolean.parseBoolean(getProperties().getProperty(INSERT_BY_COLUMN, INSERT_BY_COLUMN_DEFAULT));
-    this.session = new Session(host, port, user, password);
+    this.scanStreaming = Boolean.parseBoolean(getProperties().getProperty(SCAN_STREAMING_PROPERTY, SCAN_STREAMING_PROPERTY_DEFAULT));
     try {
-      this.session.openSession();
-    } catch (SessionException e) {
-      throw new DBException("fail to open session", e);
+      this.scanFetchSize = Integer.parseInt(getProperties().getProperty(SCAN_FETCH_SIZE_PROPERTY, SCAN_FETCH_SIZE_PROPERTY_DEFAULT));
+    } catch (NumberFormatException e) {
+      throw new DBException("fail to parse `iginx.scan.fetchsize`", e);
+    }
+    try {
+      this.deleteBufferSize = Integer.parseInt(getProperties().getProperty(DELETE_BUFFER_SIZE_PROPERTY, DELETE_BUFFER_SIZE_PROPERTY_DEFAULT));
+      this.deleteIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(getProperties().getProperty(DELETE_INTERVAL_PROPERTY, DELETE_INTERVAL_PROPERTY_DEFAULT)));
+    } catch (NumberFormatException e) {
+      throw new DBException("fail to parse `iginx.delete.buffersize` or `iginx.delete.interval`", e);
+    }
+    if (deleteBufferSize > 0) {
+      this.deleteBuffer = new DeleteBuffer(deleteBufferSize);
+    }
+    long cacheSize;
+    int cacheShards;
+    try {
+      cacheSize = Long.parseLong(getProperties().getProperty(CACHE_SIZE_PROPERTY, CACHE_SIZE_PROPERTY_DEFAULT));
+      cacheShards = Integer.parseInt(getProperties().getProperty(CACHE_SHARDS_PROPERTY, CACHE_SHARDS_PROPERTY_DEFAULT));
+    } catch (NumberFormatException e) {
+      throw new DBException("fail to parse `iginx.cache.size` or `iginx.cache.shards`", e);
+    }
+    if (cacheSize > 0) {
+      try {
+        this.cache = ReadCache.acquireShared(cacheSize, cacheShards);
+      } catch (IllegalArgumentException e) {
+        throw new DBException("fail to create read cache", e);
+      }
+      this.measurements = Measurements.getMeasurements();
+    }
+    this.phaseTimer = new PhaseTimer(Boolean.parseBoolean(getProperties().getProperty(MEASURE_PHASES, MEASURE_PHASES_DEFAULT)));
+    int fieldCount;
+    try {
+      fieldCount = Integer.parseInt(getProperties().getProperty(CoreWorkload.FIELD_COUNT_PROPERTY, CoreWorkload.FIELD_COUNT_PROPERTY_DEFAULT));
+    } catch (NumberFormatException e) {
+      throw new DBException("fail to parse `fieldcount`", e);
+    }
+    try {
+      this.keyCodec = KeyCodec.create(getProperties());
+    } catch (IOException | IllegalArgumentException e) {
+      throw new DBException("fail to create key codec", e);
+    }
+    this.tableName = getProperties().getProperty(CoreWorkload.TABLENAME_PROPERTY, CoreWorkload.TABLENAME_PROPERTY_DEFAULT);
+    this.fieldNamePrefix = getProperties().getProperty(CoreWorkload.FIELD_NAME_PREFIX, CoreWorkload.FIELD_NAME_PREFIX_DEFAULT);
+    List<String> paths = new ArrayList<>(fieldCount);
+    for (int i = 0; i < fieldCount; i++) {
+      paths.add(CoreUtils.getPath(tableName, fieldNamePrefix + i));
+    }
+    this.pathList = Collections.unmodifiableList(paths);
+    this.buffer = newInsertBuffer();
+    int poolSize;
+    try {
+      poolSize = Integer.parseInt(getProperties().getProperty(POOL_SIZE_PROPERTY, POOL_SIZE_PROPERTY_DEFAULT));
+    } catch (NumberFormatException e) {
+      throw new DBException("fail to parse `iginx.pool.size`", e);
+    }
+    if (poolSize > 0) {
+      List<String> endpoints = new ArrayList<>();
+      for (String endpoint : endpointsString.split(",")) {
+        if (!endpoint.trim().isEmpty()) {
+          endpoints.add(endpoint.trim());
+        }
+      }
+      SessionPool.Strategy strategy;
+      try {
+        strategy = SessionPool.Strategy.valueOf(getProperties().getProperty(POOL_STRATEGY_PROPERTY, POOL_STRATEGY_PROPERTY_DEFAULT).toUpperCase());
+      } catch (IllegalArgumentException e) {
+        throw new DBException("fail to parse `iginx.pool.strategy`", e);
+      }
+      try {
+        this.pool = SessionPool.acquireShared(endpoints, user, password, poolSize, strategy);
+      } catch (SessionException | IllegalArgumentException e) {
+        throw new DBException("fail to open session pool", e);
+      }
+    } else {
+      this.session = new Session(host, port, user, password);
+      try {
+        this.session.openSession();
+      } catch (SessionException e) {
+        throw new DBException("fail to open session", e);
+      }
+    }
+
+    if (Boolean.parseBoolean(getProperties().getProperty(BATCHER_SHARED_PROPERTY, BATCHER_SHARED_PROPERTY_DEFAULT))) {
+      if (pool == null) {
+        throw new DBException("shared batcher needs a session pool, set `iginx.pool.size`");
+      }
+      try {
+        int size = Integer.parseInt(getProperties().getProperty(BATCHER_SIZE_PROPERTY, BATCHER_SIZE_PROPERTY_DEFAULT));
+        long interval = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(getProperties().getProperty(BATCHER_INTERVAL_PROPERTY, BATCHER_INTERVAL_PROPERTY_DEFAULT)));
+        int threads = Integer.parseInt(getProperties().getProperty(BATCHER_THREADS_PROPERTY, String.valueOf(poolSize)));
+        SessionPool batcherPool = pool;
+        this.batcher = SharedBatcher.acquireShared(getBatcherBoundaries(), fieldCount, size, interval, threads, threads * 2, full -> {
+          // every client packs a batch the same way, and the pool outlives the last release of the batcher
+          try (SessionPool.Lease lease = batcherPool.lease()) {
+            insertBuffer(lease.session(), full);
+          }
+        });
+      } catch (IllegalArgumentException e) {
+        throw new DBException("fail to create shared batcher", e);
+      }
+    }
+
+    if (Boolean.parseBoolean(getProperties().getProperty(ASYNC_FLUSH, ASYNC_FLUSH_DEFAULT))) {
+      int inflight;
+      try {
+        inflight = Integer.parseInt(getProperties().getProperty(FLUSH_INFLIGHT, FLUSH_INFLIGHT_DEFAULT));
+      } catch (NumberFormatException e) {
+        throw new DBException("fail to parse `iginx.flush.inflight`", e);
+      }
+      if (inflight < 1) {
+        throw new DBException("`iginx.flush.inflight` should be positive, but: " + inflight);
+      }
+      this.freeBuffers = new ArrayBlockingQueue<>(inflight);
+      for (int i = 0; i < inflight; i++) {
+        freeBuffers.add(newInsertBuffer());
+      }
+      if (pool == null) {
+        this.flushSession = new Session(host, port, user, password);
+        try {
+          this.flushSession.openSession();
+        } catch (SessionException e) {
+          throw new DBException("fail to open flush session", e);
+        }
+      }
+      this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "iginx-flusher");
+        thread.setDaemon(true);
+        return thread;
+      });
+      if (bufferMaxWaitNanos > 0) {
+        long period = Math.max(1, bufferMaxWaitNanos / 2);
+        flusher.scheduleAtFixedRate(this::flushExpired, period, period, TimeUnit.NANOSECONDS);
+      }
     }
   }
 
+  /**
+   * Returns the first keys of all shards of the shared batcher but the first, either given by
+   * {@code iginx.batcher.boundaries}, or splitting evenly the keys of the load: {@code [insertstart, recordcount)} with
+   * ordered inserts and all non-negative keys with hashed inserts.
+   */
+  private long[] getBatcherBoundaries() {
+    String boundariesString = getProperties().getProperty(BATCHER_BOUNDARIES_PROPERTY, "").trim();
+    if (!boundariesString.isEmpty()) {
+      String[] parts = boundariesString.split(",");
+      long[] boundaries = new long[parts.length];
+      for (int i = 0; i < parts.length; i++) {
+        boundaries[i] = Long.parseLong(parts[i].trim());
+      }
+      return boundaries;
+    }
+    int shards = Integer.parseInt(getProperties().getProperty(BATCHER_SHARDS_PROPERTY, BATCHER_SHARDS_PROPERTY_DEFAULT));
+    if (shards < 1) {
+      throw new IllegalArgumentException("`iginx.batcher.shards` should be positive, but: " + shards);
+    }
+    long first = 0;
+    long last = Long.MAX_VALUE;
+    if (keyCodec instanceof NumericKeyCodec && "ordered".equals(getProperties().getProperty(CoreWorkload.INSERT_ORDER_PROPERTY, CoreWorkload.INSERT_ORDER_PROPERTY_DEFAULT))) {
+      first = Long.parseLong(getProperties().getProperty(Workload.INSERT_START_PROPERTY, Workload.INSERT_START_PROPERTY_DEFAULT));
+      last = Long.parseLong(getProperties().getProperty(Client.RECORD_COUNT_PROPERTY, Client.DEFAULT_RECORD_COUNT));
+    }
+    long width = Math.max(1, (last - first) / shards);
+    long[] boundaries = new long[shards - 1];
+    for (int i = 0; i < boundaries.length; i++) {
+      boundaries[i] = first + width * (i + 1);
+    }
+    return boundaries;
+  }
+
   @Override
   public void cleanup() throws DBException {
     try {
-      this.session.closeSession();
+      releaseBatcher();
+      bufferLock.lock();
+      try {
+        if (!buffer.isEmpty()) {
+          if (flushBuffer() != Status.OK) {
+            throw new DBException("fail to flush remaining buffer");
+          }
+        }
+        if (deleteBuffer != null && !deleteBuffer.isEmpty()) {
+          if (flushDeletes() != Status.OK) {
+            throw new DBException("fail to flush remaining deletes");
+          }
+        }
+      } finally {
+        bufferLock.unlock();
+      }
+      if (flusher != null) {
+        flusher.shutdown();
+        try {
+          if (!flusher.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+            throw new DBException("fail to wait for flusher");
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new DBException("interrupted while waiting for flusher", e);
+        }
+        Exception error = flushError.getAndSet(null);
+        if (error != null) {
+          throw new DBException("fail to flush asynchronously", error);
+        }
+      }
+    } finally {
+      closeResources();
+    }
+  }
+
+  private void releaseBatcher() throws DBException {
+    if (batcher != null) {
+      batcher = null;
+      try {
+        SharedBatcher.releaseShared();
+      } catch (Exception e) {
+        throw new DBException("fail to flush shared batcher", e);
+      }
+    }
+  }
+
+  private void closeResources() throws DBException {
+    if (flusher != null) {
+      flusher.shutdown();
+    }
+    if (cache != null) {
+      ReadCache.releaseShared();
+      cache = null;
+    }
+    if (pool != null) {
+      SessionPool.releaseShared();
+      pool = null;
+    }
+    try {
+      if (flushSession != null) {
+        flushSession.closeSession();
+        flushSession = null;
+      }
+      if (session != null) {
+        session.closeSession();
+        session = null;
+      }
     } catch (SessionException e) {
       throw new DBException("fail to close session", e);
+    } finally {
+      if (standIn) {
+        standIn = false;
+        IGinXStandIn.releaseShared();
+      }
+      releaseKeyCodec();
     }
   }
 
+  private void releaseKeyCodec() throws DBException {
+    if (keyCodec != null) {
+      KeyCodec codec = keyCodec;
+      keyCodec = null;
+      try {
+        codec.release();
+      } catch (IOException e) {
+        throw new DBException("fail to write key dictionary", e);
+      }
+    }
+  }
+
+  private InsertBuffer newInsertBuffer() {
+    int fieldCount = pathList.size();
+    int rowsPerBuffer = (clientBufferSize + fieldCount - 1) / Math.max(1, fieldCount);
+    int capacity = adaptiveBatchSize == null ? clientBufferSize : adaptiveBatchSize.getMax();
+    return new InsertBuffer(fieldCount, rowsPerBuffer, capacity);
+  }
+
+  /**
+   * Returns the number of points after which the insert buffer is flushed.
+   */
+  private int flushThreshold() {
+    return adaptiveBatchSize == null ? clientBufferSize : adaptiveBatchSize.getThreshold();
+  }
+
+  private SessionPool.Lease lease(Session pinned) throws InterruptedException {
+    if (pool != null) {
+      return pool.lease();
+    }
+    return SessionPool.Lease.pinned(pinned);
+  }
+
   @Override
   public Status read(String table, String key, Set<String> fields, Map<String, ByteIterator> result) {
+    if (cache != null && table.equals(tableName)) {
+      return readCached(table, key, fields, result);
+    }
     Vector<HashMap<String, ByteIterator>> resultVector = new Vector<>();
-    Status status = scan(table, key, 1, fields, resultVector);
-    if (!result.isEmpty()) {
+    Status status = scanRows(table, key, 1, fields, resultVector);
+    if (!resultVector.isEmpty()) {
       result.putAll(resultVector.get(0));
     }
     return status;
   }
 
+  private Status readCached(String table, String key, Set<String> fields, Map<String, ByteIterator> result) {
+    long start = System.nanoTime();
+    long timestamp = keyCodec.encode(key);
+    Map<String, byte[]> cached = cache.get(timestamp, fields);
+    if (cached != null) {
+      for (Map.Entry<String, byte[]> entry : cached.entrySet()) {
+        result.put(entry.getKey(), CoreUtils.getByteIterator(entry.getValue()));
+      }
+      measurements.measure(CACHE_HIT, (int) ((System.nanoTime() - start) / 1000));
+      return Status.OK;
+    }
+    long version = cache.version(timestamp);
+    Vector<HashMap<String, ByteIterator>> resultVector = new Vector<>();
+    Status status = scanRows(table, key, 1, fields, resultVector);
+    if (status == Status.OK && !resultVector.isEmpty()) {
+      Map<String, byte[]> values = new HashMap<>();
+      for (Map.Entry<String, ByteIterator> entry : resultVector.get(0).entrySet()) {
+        byte[] value = CoreUtils.getValue(entry.getValue());
+        values.put(entry.getKey(), value);
+        result.put(entry.getKey(), CoreUtils.getByteIterator(value));
+      }
+      measureEvictions(cache.put(timestamp, version, fields, values));
+    }
+    measurements.measure(CACHE_MISS, (int) ((System.nanoTime() - start) / 1000));
+    return status;
+  }
+
+  /**
+   * Reports a write of the cache that evicted rows as one {@code IGINX-CACHE-EVICT} operation, with the number of
+   * evicted rows in place of the latency.
+   */
+  private void measureEvictions(int evicted) {
+    if (evicted > 0) {
+      measurements.measure(CACHE_EVICT, evicted);
+    }
+  }
+
   @Override
   public Status scan(String table, String startkey, int recordcount, Set<String> fields, Vector<HashMap<String, ByteIterator>> result) {
-    long timestamp = CoreUtils.getTimestamp(startkey);
+    return scanRows(table, startkey, recordcount, fields, result);
+  }
+
+  /**
+   * Queries the rows of a scan. Reads and subclasses call this instead of the overridable {@link #scan}.
+   */
+  protected final Status scanRows(String table, String startkey, int recordcount, Set<String> fields, Vector<HashMap<String, ByteIterator>> result) {
+    long timestamp = keyCodec.encode(startkey);
+    if (scanStreaming) {
+      return scanStreaming(table, timestamp, recordcount, fields, result);
+    }
     List<String> pathList = new ArrayList<>();
     if (fields == null) {
       pathList.add(table + ".*");
@@ -96,22 +550,28 @@ public class IGinXClient extends DB {
         pathList.add(table + "." + field);
       }
     }
-    try {
-      SessionQueryDataSet res = session.queryData(pathList, timestamp, timestamp + recordcount);
+    try (SessionPool.Lease lease = lease(session)) {
+      long phaseStart = phaseTimer.start();
+      SessionQueryDataSet res = lease.session().queryData(pathList, timestamp, timestamp + recordcount);
+      phaseStart = phaseTimer.measure(PHASE_RPC_SCAN, phaseStart);
       if (res.getKeys().length == 0) {
         logger.warn("no data found in [{},{}) of {}", timestamp, timestamp + recordcount, pathList);
         return Status.NOT_FOUND;
       }
+      String[] fieldNames = new String[res.getPaths().size()];
+      for (int j = 0; j < fieldNames.length; j++) {
+        fieldNames[j] = CoreUtils.getFieldName(res.getPaths().get(j));
+      }
       for (int i = 0; i < res.getKeys().length; i++) {
         List<Object> values = res.getValues().get(i);
         HashMap<String, ByteIterator> currentResult = new HashMap<>();
-        for (int j = 0; j < res.getPaths().size(); j++) {
-          String fieldName = CoreUtils.getFieldName(res.getPaths().get(j));
+        for (int j = 0; j < fieldNames.length; j++) {
           ByteIterator iterator = CoreUtils.getByteIterator((byte[]) values.get(j));
-          currentResult.put(fieldName, iterator);
+          currentResult.put(fieldNames[j], iterator);
         }
         result.add(currentResult);
       }
+      phaseTimer.measure(PHASE_DECODE_SCAN, phaseStart);
       return Status.OK;
     } catch (Exception e) {
       String message = String.format("fail to scan %s from %s to %s", fields, timestamp, timestamp + recordcount);
@@ -120,6 +580,55 @@ public class IGinXClient extends DB {
     }
   }
 
+  /**
+   * Scans through a server-side cursor, fetching {@code iginx.scan.fetchsize} rows per round trip and decoding each
+   * row as it arrives instead of materializing the whole result first.
+   */
+  private Status scanStreaming(String table, long timestamp, int recordcount, Set<String> fields, Vector<HashMap<String, ByteIterator>> result) {
+    long end = timestamp + recordcount < timestamp ? Long.MAX_VALUE : timestamp + recordcount;
+    String sql = String.format("SELECT %s FROM %s WHERE key >= %d AND key < %d;",
+        fields == null ? "*" : String.join(", ", fields), table, timestamp, end);
+    try (SessionPool.Lease lease = lease(session)) {
+      long phaseStart = phaseTimer.start();
+      QueryDataSet dataSet = lease.session().executeQuery(sql, scanFetchSize);
+      try {
+        List<String> columns = dataSet.getColumnList();
+        String[] fieldNames = new String[columns.size()];
+        for (int j = 0; j < fieldNames.length; j++) {
+          String column = columns.get(j);
+          fieldNames[j] = column.equalsIgnoreCase("key") ? null : CoreUtils.getFieldName(column);
+        }
+        boolean first = true;
+        while (dataSet.hasMore()) {
+          Object[] row = dataSet.nextRow();
+          if (first) {
+            phaseTimer.measure(PHASE_FIRST_ROW_SCAN, phaseStart);
+            first = false;
+          }
+          HashMap<String, ByteIterator> currentResult = new HashMap<>();
+          for (int j = 0; j < fieldNames.length; j++) {
+            if (fieldNames[j] != null && row[j] != null) {
+              currentResult.put(fieldNames[j], CoreUtils.getByteIterator((byte[]) row[j]));
+            }
+          }
+          result.add(currentResult);
+        }
+      } finally {
+        dataSet.close();
+      }
+      phaseTimer.measure(PHASE_STREAM_SCAN, phaseStart);
+      if (result.isEmpty()) {
+        logger.warn("no data found in [{},{}) of {}", timestamp, end, table);
+        return Status.NOT_FOUND;
+      }
+      return Status.OK;
+    } catch (Exception e) {
+      String message = String.format("fail to scan %s from %s to %s", fields, timestamp, end);
+      logger.error(message, e);
+      return Status.ERROR;
+    }
+  }
+
   @Override
   public Status update(String table, String key, Map<String, ByteIterator> values) {
     return insert(table, key, values);
@@ -127,96 +636,369 @@ public class IGinXClient extends DB {
 
   @Override
   public Status insert(String table, String key, Map<String, ByteIterator> values) {
-    long timestamp = CoreUtils.getTimestamp(key);
-    Map<String, byte[]> record = new HashMap<>();
+    Exception error = flushError.getAndSet(null);
+    if (error != null) {
+      logger.error("fail to flush asynchronously", error);
+      return Status.ERROR;
+    }
+    if (!table.equals(tableName)) {
+      logger.error("table {} is not the configured `table` {}", table, tableName);
+      return Status.BAD_REQUEST;
+    }
+    if (!checkFields(values)) {
+      return Status.BAD_REQUEST;
+    }
+    if (batcher != null) {
+      return insertShared(key, values);
+    }
+
+    bufferLock.lock();
+    try {
+      return insertBuffered(key, values);
+    } finally {
+      bufferLock.unlock();
+    }
+  }
+
+  private Status insertBuffered(String key, Map<String, ByteIterator> values) {
+    long phaseStart = phaseTimer.start();
+    long timestamp = keyCodec.encode(key);
+    int row = buffer.row(timestamp);
+    if (row < 0) {
+      Status status = flushBuffer();
+      if (status != Status.OK) {
+        return status;
+      }
+      phaseStart = phaseTimer.start();
+      row = buffer.row(timestamp);
+    }
+    if (buffer.rows() == 1) {
+      bufferStartNanos = System.nanoTime();
+    }
+    Status status = setRow(buffer, row, timestamp, values);
+    phaseTimer.measure(PHASE_BUFFER_INSERT, phaseStart);
+    if (status != Status.OK) {
+      return status;
+    }
+
+    if (buffer.points() < flushThreshold() && (bufferMaxWaitNanos <= 0 || System.nanoTime() - bufferStartNanos < bufferMaxWaitNanos)) {
+      return Status.OK;
+    }
+
+    return flushBuffer();
+  }
+
+  private Status insertShared(String key, Map<String, ByteIterator> values) {
+    Exception error = batcher.takeError();
+    if (error != null) {
+      logger.error("fail to flush shared batcher", error);
+      return Status.ERROR;
+    }
+    long phaseStart = phaseTimer.start();
+    long timestamp = keyCodec.encode(key);
+    try {
+      Status status = batcher.put(timestamp, (target, row) -> setRow(target, row, timestamp, values));
+      phaseTimer.measure(PHASE_BUFFER_INSERT, phaseStart);
+      return status;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      logger.error("interrupted while waiting for shared batcher", e);
+      return Status.ERROR;
+    }
+  }
+
+  /**
+   * Inserts the row with a request of its own, bypassing the insert buffer of the client, so that it may be called
+   * from any thread.
+   */
+  protected Status insertRow(String table, String key, Map<String, ByteIterator> values) {
+    if (!table.equals(tableName)) {
+      logger.error("table {} is not the configured `table` {}", table, tableName);
+      return Status.BAD_REQUEST;
+    }
+    if (!checkFields(values)) {
+      return Status.BAD_REQUEST;
+    }
+    long timestamp = keyCodec.encode(key);
+    InsertBuffer single = new InsertBuffer(pathList.size(), 1, 1);
+    Status status = setRow(single, single.row(timestamp), timestamp, values);
+    if (status != Status.OK) {
+      return status;
+    }
+    try (SessionPool.Lease lease = lease(session)) {
+      return insertBuffer(lease.session(), single);
+    } catch (Exception e) {
+      logger.error("fail to insert", e);
+      return Status.ERROR;
+    }
+  }
+
+  /**
+   * Checks that all fields are among the buffered ones, before a row is taken in a buffer that is flushed whether or
+   * not its values are set.
+   */
+  private boolean checkFields(Map<String, ByteIterator> values) {
+    for (String field : values.keySet()) {
+      if (CoreUtils.getFieldIndex(field, fieldNamePrefix, pathList.size()) < 0) {
+        logger.error("field {} is not one of the `fieldcount` fields named by `fieldnameprefix`", field);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Sets the values of the row in the buffer and writes them through into the read cache. The fields must have been
+   * checked by {@link #checkFields(Map)}.
+   */
+  private Status setRow(InsertBuffer target, int row, long timestamp, Map<String, ByteIterator> values) {
+    Map<String, byte[]> written = cache == null ? null : new HashMap<>();
     for (Map.Entry<String, ByteIterator> entry : values.entrySet()) {
-      String path = CoreUtils.getPath(table, entry.getKey());
+      int field = CoreUtils.getFieldIndex(entry.getKey(), fieldNamePrefix, target.fieldCount());
       byte[] value = CoreUtils.getValue(entry.getValue());
-      record.put(path, value);
+      target.set(row, field, value);
+      if (written != null) {
+        written.put(entry.getKey(), value);
+      }
+    }
+    if (written != null) {
+      measureEvictions(cache.update(timestamp, written));
     }
+    return Status.OK;
+  }
+
+  protected boolean isPooled() {
+    return pool != null;
+  }
 
-    return insert(timestamp, record);
+  protected boolean isInsertBuffered() {
+    return clientBufferSize > 0 || adaptiveBatchSize != null || batcher != null;
+  }
+
+  protected boolean isDeleteBuffered() {
+    return deleteBuffer != null;
   }
 
   @Override
   public Status delete(String table, String key) {
-    long timestamp = CoreUtils.getTimestamp(key);
-    try {
-      session.deleteDataInColumn(table + ".*", timestamp, timestamp + 1);
+    long timestamp = keyCodec.encode(key);
+    if (deleteBuffer != null && table.equals(tableName)) {
+      return bufferDelete(timestamp);
+    }
+    try (SessionPool.Lease lease = lease(session)) {
+      long phaseStart = phaseTimer.start();
+      lease.session().deleteDataInColumn(table + ".*", timestamp, timestamp + 1);
+      phaseTimer.measure(PHASE_RPC_DELETE, phaseStart);
       return Status.OK;
     } catch (Exception e) {
       String message = String.format("fail to delete %s at %s", table, timestamp);
       logger.error(message, e);
       return Status.ERROR;
+    } finally {
+      if (cache != null && table.equals(tableName)) {
+        cache.invalidate(timestamp);
+      }
     }
   }
 
-  private Status insert(long timestamp, Map<String, byte[]> record) {
-    buffer.computeIfAbsent(timestamp, k -> new HashMap<>()).putAll(record);
-    bufferPoints += record.size();
+  /**
+   * Buffers the delete, after flushing any buffered insert of the same key so that the insert is deleted.
+   */
+  private Status bufferDelete(long timestamp) {
+    Exception error = flushError.getAndSet(null);
+    if (error != null) {
+      logger.error("fail to flush asynchronously", error);
+      return Status.ERROR;
+    }
+    if (cache != null) {
+      cache.invalidate(timestamp);
+    }
+    bufferLock.lock();
+    try {
+      return bufferDeleteLocked(timestamp);
+    } finally {
+      bufferLock.unlock();
+    }
+  }
 
-    if (bufferPoints < clientBufferSize) {
+  private Status bufferDeleteLocked(long timestamp) {
+    if (buffer.contains(timestamp)) {
+      Status status = flushBuffer();
+      if (status != Status.OK) {
+        return status;
+      }
+    }
+    if (batcher != null) {
+      try {
+        batcher.flush(timestamp);
+      } catch (Exception e) {
+        logger.error("fail to flush shared batcher", e);
+        return Status.ERROR;
+      }
+    }
+    deleteBuffer.add(timestamp);
+    if (deleteBuffer.size() < deleteBufferSize && deleteBuffer.ageNanos() < deleteIntervalNanos) {
       return Status.OK;
     }
+    return flushDeletes();
+  }
 
-    try {
-      return insertBuffer();
+  /**
+   * Deletes the buffered keys with one request per range of adjacent keys. In asynchronous mode the ranges are deleted
+   * by the flusher, in order with the insert buffers submitted before.
+   */
+  private Status flushDeletes() {
+    long[] ranges = deleteBuffer.toRanges();
+    deleteBuffer.clear();
+    if (flusher != null) {
+      flusher.execute(() -> {
+        try (SessionPool.Lease lease = lease(flushSession)) {
+          deleteRanges(lease.session(), ranges);
+        } catch (Exception e) {
+          if (!flushError.compareAndSet(null, e)) {
+            logger.error("fail to delete", e);
+          }
+        }
+      });
+      return Status.OK;
+    }
+    try (SessionPool.Lease lease = lease(session)) {
+      deleteRanges(lease.session(), ranges);
+      return Status.OK;
+    } catch (Exception e) {
+      logger.error("fail to delete {} ranges of {}", ranges.length / 2, tableName, e);
+      return Status.ERROR;
+    }
+  }
+
+  private void deleteRanges(Session session, long[] ranges) throws SessionException, ExecutionException {
+    String path = tableName + ".*";
+    for (int i = 0; i < ranges.length; i += 2) {
+      long phaseStart = phaseTimer.start();
+      session.deleteDataInColumn(path, ranges[i], ranges[i + 1]);
+      phaseTimer.measure(PHASE_RPC_DELETE, phaseStart);
+    }
+  }
+
+  /**
+   * Flushes the insert buffer, after the pending deletes so that a key deleted and then inserted again is kept.
+   */
+  private Status flushBuffer() {
+    if (deleteBuffer != null && !deleteBuffer.isEmpty()) {
+      Status status = flushDeletes();
+      if (status != Status.OK) {
+        return status;
+      }
+    }
+    if (flusher != null) {
+      return flushBufferAsync();
+    }
+    try (SessionPool.Lease lease = lease(session)) {
+      return insertBuffer(lease.session(), buffer);
     } catch (Exception e) {
       logger.error("fail to insert", e);
       return Status.ERROR;
     } finally {
       buffer.clear();
-      bufferPoints = 0;
     }
   }
 
-  private Status insertBuffer() throws SessionException, ExecutionException {
-    List<String> pathList = buffer.values().stream().map(Map::keySet)
-        .flatMap(Collection::stream).distinct().collect(Collectors.toList());
-    List<DataType> dataTypeList = pathList.stream().map(p -> DataType.BINARY).collect(Collectors.toList());
-    long[] timestamps = buffer.keySet().stream().mapToLong(Long::longValue).toArray();
-
-    if (insertByColumn) {
-      return insertColumn(pathList, dataTypeList, timestamps);
-    } else {
-      return insertRow(pathList, dataTypeList, timestamps);
+  private Status flushBufferAsync() {
+    InsertBuffer full = buffer;
+    try {
+      buffer = freeBuffers.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      logger.error("interrupted while waiting for a free buffer", e);
+      return Status.ERROR;
     }
+    flusher.execute(() -> {
+      try (SessionPool.Lease lease = lease(flushSession)) {
+        insertBuffer(lease.session(), full);
+      } catch (Exception e) {
+        if (!flushError.compareAndSet(null, e)) {
+          logger.error("fail to insert", e);
+        }
+      } finally {
+        full.clear();
+        freeBuffers.add(full);
+      }
+    });
+    return Status.OK;
   }
 
-  private Status insertColumn(List<String> pathList, List<DataType> dataTypeList, long[] timestamps) throws SessionException, ExecutionException {
-    Object[] valuesList = new Object[pathList.size()];
-    for (int i = 0; i < pathList.size(); i++) {
-      valuesList[i] = new Object[timestamps.length];
+  /**
+   * Run periodically by the flusher: flushes the insert buffer, after the pending deletes, once its oldest row has
+   * waited {@code iginx.buffer.maxwait}. The tick is skipped while the YCSB thread holds the buffer, as it may be
+   * waiting for the flusher to free a buffer, or when no free buffer is left, as a flush is then in flight anyway.
+   */
+  private void flushExpired() {
+    if (!bufferLock.tryLock()) {
+      return;
     }
-
-    Map<String, Integer> pathIndexMap = getIndexMap(pathList);
-    for (int i = 0; i < timestamps.length; i++) {
-      Map<String, byte[]> record = buffer.get(timestamps[i]);
-      for (Map.Entry<String, byte[]> entry : record.entrySet()) {
-        int index = pathIndexMap.get(entry.getKey());
-        ((Object[]) valuesList[index])[i] = entry.getValue();
+    long[] ranges = null;
+    InsertBuffer full;
+    try {
+      if (buffer.isEmpty() || System.nanoTime() - bufferStartNanos < bufferMaxWaitNanos) {
+        return;
+      }
+      InsertBuffer free = freeBuffers.poll();
+      if (free == null) {
+        return;
+      }
+      if (deleteBuffer != null && !deleteBuffer.isEmpty()) {
+        ranges = deleteBuffer.toRanges();
+        deleteBuffer.clear();
       }
+      full = buffer;
+      buffer = free;
+    } finally {
+      bufferLock.unlock();
+    }
+    // already on the flusher, so in order with the buffers and deletes submitted before
+    try (SessionPool.Lease lease = lease(flushSession)) {
+      if (ranges != null) {
+        deleteRanges(lease.session(), ranges);
+      }
+      insertBuffer(lease.session(), full);
+    } catch (Exception e) {
+      if (!flushError.compareAndSet(null, e)) {
+        logger.error("fail to insert", e);
+      }
+    } finally {
+      full.clear();
+      freeBuffers.add(full);
     }
-
-    session.insertColumnRecords(pathList, timestamps, valuesList, dataTypeList, null);
-    return Status.OK;
   }
 
-  private Status insertRow(List<String> pathList, List<DataType> dataTypeList, long[] timestamps) throws SessionException, ExecutionException {
-    Object[] valuesList = new Object[timestamps.length];
-
-    Map<String, Integer> pathIndexMap = getIndexMap(pathList);
-    for (int i = 0; i < timestamps.length; i++) {
-      Map<String, byte[]> record = buffer.get(timestamps[i]);
-      Object[] values = new Object[pathList.size()];
-      for (Map.Entry<String, byte[]> entry : record.entrySet()) {
-        int index = pathIndexMap.get(entry.getKey());
-        values[index] = entry.getValue();
-      }
-      valuesList[i] = values;
+  private Status insertBuffer(Session session, InsertBuffer buffer) throws SessionException, ExecutionException {
+    long phaseStart = phaseTimer.start();
+    int[] fields = buffer.nonEmptyFields();
+    // the session sorts paths, timestamps and values in place, so it always gets its own lists and arrays
+    List<String> paths = new ArrayList<>(fields.length);
+    List<DataType> dataTypeList = new ArrayList<>(fields.length);
+    for (int field : fields) {
+      paths.add(pathList.get(field));
+      dataTypeList.add(DataType.BINARY);
     }
+    long[] timestamps = buffer.keys();
 
-    session.insertRowRecords(pathList, timestamps, valuesList, dataTypeList, null);
+    long rpcStart;
+    if (insertByColumn) {
+      Object[] valuesList = buffer.toColumns(fields);
+      phaseStart = phaseTimer.measure(PHASE_PACK_INSERT, phaseStart);
+      rpcStart = System.nanoTime();
+      session.insertColumnRecords(paths, timestamps, valuesList, dataTypeList, null);
+    } else {
+      Object[] valuesList = buffer.toRows(fields);
+      phaseStart = phaseTimer.measure(PHASE_PACK_INSERT, phaseStart);
+      rpcStart = System.nanoTime();
+      session.insertRowRecords(paths, timestamps, valuesList, dataTypeList, null);
+    }
+    if (adaptiveBatchSize != null) {
+      adaptiveBatchSize.record(buffer.points(), System.nanoTime() - rpcStart);
+    }
+    phaseTimer.measure(PHASE_RPC_INSERT, phaseStart);
     return Status.OK;
   }
 
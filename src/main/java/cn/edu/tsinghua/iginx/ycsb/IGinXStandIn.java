@@ -0,0 +1,408 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+import cn.edu.tsinghua.iginx.thrift.CloseSessionReq;
+import cn.edu.tsinghua.iginx.thrift.DataType;
+import cn.edu.tsinghua.iginx.thrift.DeleteDataInColumnsReq;
+import cn.edu.tsinghua.iginx.thrift.IService;
+import cn.edu.tsinghua.iginx.thrift.InsertColumnRecordsReq;
+import cn.edu.tsinghua.iginx.thrift.InsertRowRecordsReq;
+import cn.edu.tsinghua.iginx.thrift.OpenSessionReq;
+import cn.edu.tsinghua.iginx.thrift.OpenSessionResp;
+import cn.edu.tsinghua.iginx.thrift.QueryDataReq;
+import cn.edu.tsinghua.iginx.thrift.QueryDataResp;
+import cn.edu.tsinghua.iginx.thrift.QueryDataSet;
+import cn.edu.tsinghua.iginx.thrift.Status;
+import cn.edu.tsinghua.iginx.thrift.StatusCode;
+import org.apache.thrift.TException;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.server.TThreadPoolServer;
+import org.apache.thrift.transport.TServerSocket;
+import org.apache.thrift.transport.TTransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process stand-in of an IGinX server for offline runs. It serves the session protocol used by the binding
+ * ({@code openSession}, {@code closeSession}, {@code insertRowRecords}, {@code insertColumnRecords}, {@code queryData}
+ * and {@code deleteDataInColumns}) on the loopback interface from an in-memory sorted store, optionally delaying every
+ * call by a fixed latency. Tags and time precisions are ignored; any other call is rejected.
+ */
+public class IGinXStandIn implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(IGinXStandIn.class);
+
+  private static IGinXStandIn shared = null;
+
+  private static int sharedReferences = 0;
+
+  private final Map<String, Column> columns = new ConcurrentHashMap<>();
+
+  private final AtomicLong nextSessionId = new AtomicLong();
+
+  private final long latencyNanos;
+
+  private final ServerSocket serverSocket;
+
+  private final TServer server;
+
+  private final Thread serverThread;
+
+  public IGinXStandIn(int port, long latencyMicros) throws TTransportException {
+    this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+    try {
+      this.serverSocket = new ServerSocket();
+      serverSocket.setReuseAddress(true);
+      serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    } catch (IOException e) {
+      throw new TTransportException("fail to bind port " + port, e);
+    }
+    IService.Iface handler = (IService.Iface) Proxy.newProxyInstance(
+        IService.Iface.class.getClassLoader(), new Class<?>[]{IService.Iface.class}, this::invoke);
+    TThreadPoolServer.Args args = new TThreadPoolServer.Args(new TServerSocket(serverSocket))
+        .processor(new IService.Processor<>(handler))
+        .minWorkerThreads(1);
+    this.server = new TThreadPoolServer(args);
+    this.serverThread = new Thread(server::serve, "iginx-stand-in");
+    serverThread.setDaemon(true);
+    serverThread.start();
+    logger.info("stand-in of IGinX is serving on {} with latency of {}us", getAddress(), latencyMicros);
+  }
+
+  public static synchronized IGinXStandIn acquireShared(int port, long latencyMicros) throws TTransportException {
+    if (shared == null) {
+      shared = new IGinXStandIn(port, latencyMicros);
+    }
+    sharedReferences++;
+    return shared;
+  }
+
+  public static synchronized void releaseShared() {
+    if (--sharedReferences == 0) {
+      shared.close();
+      shared = null;
+    }
+  }
+
+  /**
+   * Serves until the process is killed: {@code IGinXStandIn [port] [latency in microseconds]}.
+   */
+  public static void main(String[] args) throws Exception {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : Integer.parseInt(IGinXClient.PORT_PROPERTY_DEFAULT);
+    long latencyMicros = args.length > 1 ? Long.parseLong(args[1]) : 0;
+    IGinXStandIn standIn = new IGinXStandIn(port, latencyMicros);
+    standIn.serverThread.join();
+  }
+
+  public String getHost() {
+    return serverSocket.getInetAddress().getHostAddress();
+  }
+
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  public String getAddress() {
+    return getHost() + ":" + getPort();
+  }
+
+  @Override
+  public void close() {
+    server.stop();
+    try {
+      serverSocket.close();
+      serverThread.join(TimeUnit.SECONDS.toMillis(10));
+    } catch (Exception e) {
+      logger.error("fail to stop stand-in of IGinX", e);
+    }
+    columns.clear();
+  }
+
+  private Object invoke(Object proxy, Method method, Object[] args) throws TException {
+    if (latencyNanos > 0) {
+      long deadline = System.nanoTime() + latencyNanos;
+      for (long left = latencyNanos; left > 0; left = deadline - System.nanoTime()) {
+        LockSupport.parkNanos(left);
+      }
+    }
+    try {
+      switch (method.getName()) {
+        case "openSession":
+          return openSession((OpenSessionReq) args[0]);
+        case "closeSession":
+          return closeSession((CloseSessionReq) args[0]);
+        case "insertRowRecords":
+          return insertRowRecords((InsertRowRecordsReq) args[0]);
+        case "insertColumnRecords":
+          return insertColumnRecords((InsertColumnRecordsReq) args[0]);
+        case "queryData":
+          return queryData((QueryDataReq) args[0]);
+        case "deleteDataInColumns":
+          return deleteDataInColumns((DeleteDataInColumnsReq) args[0]);
+        default:
+          throw new TException("not supported by the stand-in of IGinX: " + method.getName());
+      }
+    } catch (RuntimeException e) {
+      logger.error("fail to serve {}", method.getName(), e);
+      throw new TException("fail to serve " + method.getName() + ": " + e, e);
+    }
+  }
+
+  private static Status success() {
+    return new Status(StatusCode.SUCCESS_STATUS.getStatusCode());
+  }
+
+  private OpenSessionResp openSession(OpenSessionReq req) {
+    OpenSessionResp resp = new OpenSessionResp(success());
+    resp.setSessionId(nextSessionId.incrementAndGet());
+    return resp;
+  }
+
+  private Status closeSession(CloseSessionReq req) {
+    return success();
+  }
+
+  private Status insertRowRecords(InsertRowRecordsReq req) {
+    List<String> paths = req.getPaths();
+    List<DataType> dataTypes = req.getDataTypeList();
+    long[] keys = getKeys(req.bufferForKeys());
+    Column[] targets = getColumns(paths, dataTypes);
+    for (int row = 0; row < keys.length; row++) {
+      ByteBuffer values = req.getValuesList().get(row).duplicate();
+      byte[] bitmap = getBytes(req.getBitmapList().get(row));
+      for (int i = 0; i < targets.length; i++) {
+        if (isMarked(bitmap, i)) {
+          targets[i].values.put(keys[row], getValue(values, dataTypes.get(i)));
+        }
+      }
+    }
+    return success();
+  }
+
+  private Status insertColumnRecords(InsertColumnRecordsReq req) {
+    List<String> paths = req.getPaths();
+    List<DataType> dataTypes = req.getDataTypeList();
+    long[] keys = getKeys(req.bufferForKeys());
+    Column[] targets = getColumns(paths, dataTypes);
+    for (int i = 0; i < targets.length; i++) {
+      ByteBuffer values = req.getValuesList().get(i).duplicate();
+      byte[] bitmap = getBytes(req.getBitmapList().get(i));
+      for (int row = 0; row < keys.length; row++) {
+        if (isMarked(bitmap, row)) {
+          targets[i].values.put(keys[row], getValue(values, dataTypes.get(i)));
+        }
+      }
+    }
+    return success();
+  }
+
+  private QueryDataResp queryData(QueryDataReq req) {
+    List<String> paths = new ArrayList<>();
+    List<DataType> dataTypes = new ArrayList<>();
+    List<Map<Long, Object>> ranges = new ArrayList<>();
+    for (String path : expand(req.getPaths())) {
+      Column column = columns.get(path);
+      if (column == null) {
+        continue;
+      }
+      paths.add(path);
+      dataTypes.add(column.type);
+      ranges.add(column.values.subMap(req.getStartKey(), true, req.getEndKey(), false));
+    }
+
+    TreeMap<Long, Object[]> rows = new TreeMap<>();
+    for (int i = 0; i < ranges.size(); i++) {
+      for (Map.Entry<Long, Object> entry : ranges.get(i).entrySet()) {
+        rows.computeIfAbsent(entry.getKey(), k -> new Object[paths.size()])[i] = entry.getValue();
+      }
+    }
+
+    ByteBuffer keys = ByteBuffer.allocate(rows.size() * Long.BYTES);
+    List<ByteBuffer> valuesList = new ArrayList<>(rows.size());
+    List<ByteBuffer> bitmapList = new ArrayList<>(rows.size());
+    for (Map.Entry<Long, Object[]> row : rows.entrySet()) {
+      keys.putLong(row.getKey());
+      Object[] values = row.getValue();
+      byte[] bitmap = new byte[(values.length + 7) / 8];
+      int size = 0;
+      for (int i = 0; i < values.length; i++) {
+        if (values[i] != null) {
+          bitmap[i / 8] |= (byte) (1 << (i % 8));
+          size += getValueSize(values[i], dataTypes.get(i));
+        }
+      }
+      ByteBuffer buffer = ByteBuffer.allocate(size);
+      for (int i = 0; i < values.length; i++) {
+        if (values[i] != null) {
+          putValue(buffer, values[i], dataTypes.get(i));
+        }
+      }
+      buffer.flip();
+      valuesList.add(buffer);
+      bitmapList.add(ByteBuffer.wrap(bitmap));
+    }
+    keys.flip();
+
+    QueryDataResp resp = new QueryDataResp(success());
+    resp.setPaths(paths);
+    resp.setDataTypeList(dataTypes);
+    resp.setTagsList(Collections.nCopies(paths.size(), Collections.emptyMap()));
+    resp.setQueryDataSet(new QueryDataSet(keys, valuesList, bitmapList));
+    return resp;
+  }
+
+  private Status deleteDataInColumns(DeleteDataInColumnsReq req) {
+    for (String path : expand(req.getPaths())) {
+      Column column = columns.get(path);
+      if (column != null) {
+        column.values.subMap(req.getStartKey(), true, req.getEndKey(), false).clear();
+      }
+    }
+    return success();
+  }
+
+  /**
+   * Replaces each path ending with {@code *} by the stored paths it matches, in order.
+   */
+  private List<String> expand(List<String> paths) {
+    List<String> result = new ArrayList<>();
+    for (String path : paths) {
+      if (!path.endsWith("*")) {
+        result.add(path);
+        continue;
+      }
+      String prefix = path.substring(0, path.length() - 1);
+      List<String> matched = new ArrayList<>();
+      for (String stored : columns.keySet()) {
+        if (stored.startsWith(prefix) && !result.contains(stored)) {
+          matched.add(stored);
+        }
+      }
+      Collections.sort(matched);
+      result.addAll(matched);
+    }
+    return result;
+  }
+
+  private Column[] getColumns(List<String> paths, List<DataType> dataTypes) {
+    Column[] targets = new Column[paths.size()];
+    for (int i = 0; i < targets.length; i++) {
+      DataType type = dataTypes.get(i);
+      targets[i] = columns.computeIfAbsent(paths.get(i), p -> new Column(type));
+      if (targets[i].type != type) {
+        throw new IllegalArgumentException("type of " + paths.get(i) + " is " + targets[i].type + ", but: " + type);
+      }
+    }
+    return targets;
+  }
+
+  private static long[] getKeys(ByteBuffer buffer) {
+    ByteBuffer keys = buffer.duplicate();
+    long[] result = new long[keys.remaining() / Long.BYTES];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = keys.getLong();
+    }
+    return result;
+  }
+
+  private static byte[] getBytes(ByteBuffer buffer) {
+    ByteBuffer bytes = buffer.duplicate();
+    byte[] result = new byte[bytes.remaining()];
+    bytes.get(result);
+    return result;
+  }
+
+  private static boolean isMarked(byte[] bitmap, int index) {
+    return (bitmap[index / 8] & (1 << (index % 8))) != 0;
+  }
+
+  private static Object getValue(ByteBuffer buffer, DataType type) {
+    switch (type) {
+      case BOOLEAN:
+        return buffer.get() == 1;
+      case INTEGER:
+        return buffer.getInt();
+      case LONG:
+        return buffer.getLong();
+      case FLOAT:
+        return buffer.getFloat();
+      case DOUBLE:
+        return buffer.getDouble();
+      case BINARY:
+        byte[] value = new byte[buffer.getInt()];
+        buffer.get(value);
+        return value;
+      default:
+        throw new IllegalArgumentException("unsupported data type: " + type);
+    }
+  }
+
+  private static int getValueSize(Object value, DataType type) {
+    switch (type) {
+      case BOOLEAN:
+        return 1;
+      case INTEGER:
+      case FLOAT:
+        return 4;
+      case LONG:
+      case DOUBLE:
+        return 8;
+      case BINARY:
+        return 4 + ((byte[]) value).length;
+      default:
+        throw new IllegalArgumentException("unsupported data type: " + type);
+    }
+  }
+
+  private static void putValue(ByteBuffer buffer, Object value, DataType type) {
+    switch (type) {
+      case BOOLEAN:
+        buffer.put((byte) ((Boolean) value ? 1 : 0));
+        break;
+      case INTEGER:
+        buffer.putInt((Integer) value);
+        break;
+      case LONG:
+        buffer.putLong((Long) value);
+        break;
+      case FLOAT:
+        buffer.putFloat((Float) value);
+        break;
+      case DOUBLE:
+        buffer.putDouble((Double) value);
+        break;
+      case BINARY:
+        buffer.putInt(((byte[]) value).length);
+        buffer.put((byte[]) value);
+        break;
+      default:
+        throw new IllegalArgumentException("unsupported data type: " + type);
+    }
+  }
+
+  private static class Column {
+    private final DataType type;
+    private final ConcurrentSkipListMap<Long, Object> values = new ConcurrentSkipListMap<>();
+
+    private Column(DataType type) {
+      this.type = type;
+    }
+  }
+}
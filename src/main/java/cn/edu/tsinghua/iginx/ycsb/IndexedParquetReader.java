@@ -0,0 +1,239 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+import cn.edu.tsinghua.iginx.parquet.shared.Constants;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.column.statistics.Statistics;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.convert.GroupRecordConverter;
+import org.apache.parquet.filter2.compat.FilterCompat;
+import org.apache.parquet.filter2.predicate.FilterApi;
+import org.apache.parquet.filter2.predicate.FilterPredicate;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnPath;
+import org.apache.parquet.internal.filter2.columnindex.ColumnIndexFilter;
+import org.apache.parquet.internal.filter2.columnindex.RowRanges;
+import org.apache.parquet.io.ColumnIOFactory;
+import org.apache.parquet.io.LocalInputFile;
+import org.apache.parquet.io.MessageColumnIO;
+import org.apache.parquet.io.RecordReader;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.Type;
+import site.ycsb.ByteIterator;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+/**
+ * Parquet reader that keeps the file open and indexes the key range of every row group from the footer, so that a
+ * point or short range read only decodes the overlapping row groups and, through the column index, pages.
+ */
+public class IndexedParquetReader implements AutoCloseable {
+
+  private static final ColumnPath KEY_PATH = ColumnPath.get(Constants.KEY_FIELD_NAME);
+
+  private final ParquetFileReader reader;
+
+  private final MessageType schema;
+
+  private final Set<ColumnPath> paths;
+
+  private final Map<List<String>, Projection> projections = new HashMap<>();
+
+  private final Projection allColumns;
+
+  private final long[] mins;
+
+  private final long[] maxs;
+
+  private final boolean sorted;
+
+  public IndexedParquetReader(Path path) throws IOException {
+    this.reader = ParquetFileReader.open(new LocalInputFile(path));
+    try {
+      this.schema = reader.getFooter().getFileMetaData().getSchema();
+      this.paths = Collections.singleton(KEY_PATH);
+      this.allColumns = new Projection(schema);
+
+      List<BlockMetaData> blocks = reader.getRowGroups();
+      this.mins = new long[blocks.size()];
+      this.maxs = new long[blocks.size()];
+      boolean isSorted = true;
+      for (int i = 0; i < blocks.size(); i++) {
+        mins[i] = Long.MIN_VALUE;
+        maxs[i] = Long.MAX_VALUE;
+        for (ColumnChunkMetaData column : blocks.get(i).getColumns()) {
+          Statistics<?> statistics = column.getStatistics();
+          if (column.getPath().equals(KEY_PATH) && statistics != null && statistics.hasNonNullValue()) {
+            mins[i] = ((Number) statistics.genericGetMin()).longValue();
+            maxs[i] = ((Number) statistics.genericGetMax()).longValue();
+          }
+        }
+        if (i > 0 && (mins[i] < mins[i - 1] || maxs[i] < maxs[i - 1])) {
+          isSorted = false;
+        }
+      }
+      this.sorted = isSorted;
+    } catch (Exception e) {
+      reader.close();
+      throw e;
+    }
+  }
+
+  public int getRowGroupCount() {
+    return mins.length;
+  }
+
+  /**
+   * Returns the minimum and the maximum keys of every row group, from the footer.
+   */
+  public long[][] getKeyRanges() {
+    return new long[][]{mins.clone(), maxs.clone()};
+  }
+
+  /**
+   * Returns the indexes of the row groups ordered by their minimum key.
+   */
+  public int[] getRowGroupsByKey() {
+    Integer[] order = new Integer[mins.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    if (!sorted) {
+      Arrays.sort(order, Comparator.comparingLong(i -> mins[i]));
+    }
+    int[] rowGroups = new int[order.length];
+    for (int i = 0; i < order.length; i++) {
+      rowGroups[i] = order[i];
+    }
+    return rowGroups;
+  }
+
+  /**
+   * Appends all rows of the row groups {@code rowGroups[from, to)} in turn to the result, reading only the given
+   * columns, or all columns if they are null.
+   */
+  public void read(List<String> columns, int[] rowGroups, int from, int to, List<HashMap<String, ByteIterator>> result) throws IOException {
+    Projection projection = columns == null ? allColumns : projections.computeIfAbsent(columns, this::project);
+    reader.setRequestedSchema(projection.schema);
+    for (int i = from; i < to; i++) {
+      PageReadStore pages = reader.readRowGroup(rowGroups[i]);
+      decode(pages, projection, FilterCompat.NOOP, result);
+    }
+  }
+
+  /**
+   * Appends the rows whose key is in {@code [start, end)} to the result, reading only the given columns, or all columns
+   * if they are null.
+   */
+  public void scan(List<String> columns, long start, long end, Vector<HashMap<String, ByteIterator>> result) throws IOException {
+    Projection projection = columns == null ? allColumns : projections.computeIfAbsent(columns, this::project);
+    reader.setRequestedSchema(projection.schema);
+    int first = sorted ? firstRowGroupEndingAtOrAfter(start) : 0;
+    FilterCompat.Filter filter = null;
+    for (int i = first; i < mins.length; i++) {
+      if (mins[i] >= end) {
+        if (sorted) {
+          break;
+        }
+        continue;
+      }
+      if (maxs[i] < start) {
+        continue;
+      }
+      if (filter == null) {
+        FilterPredicate predicate = FilterApi.and(
+            FilterApi.gtEq(FilterApi.longColumn(Constants.KEY_FIELD_NAME), start),
+            FilterApi.lt(FilterApi.longColumn(Constants.KEY_FIELD_NAME), end));
+        filter = FilterCompat.get(predicate);
+      }
+      readRowGroup(i, projection, filter, result);
+    }
+  }
+
+  private int firstRowGroupEndingAtOrAfter(long key) {
+    int low = 0;
+    int high = maxs.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (maxs[mid] < key) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private Projection project(List<String> columns) {
+    List<Type> fields = new ArrayList<>(columns.size());
+    for (Type field : schema.getFields()) {
+      if (columns.contains(field.getName())) {
+        fields.add(field);
+      }
+    }
+    return new Projection(new MessageType(schema.getName(), fields));
+  }
+
+  private void readRowGroup(int index, Projection projection, FilterCompat.Filter filter, List<HashMap<String, ByteIterator>> result) throws IOException {
+    long rowCount = reader.getRowGroups().get(index).getRowCount();
+    // falls back to all rows of the row group when the file has no column index
+    RowRanges ranges = ColumnIndexFilter.calculateRowRanges(filter, reader.getColumnIndexStore(index), paths, rowCount);
+    if (ranges.rowCount() == 0) {
+      return;
+    }
+    PageReadStore pages = reader.readFilteredRowGroup(index, ranges);
+    decode(pages, projection, filter, result);
+  }
+
+  private static void decode(PageReadStore pages, Projection projection, FilterCompat.Filter filter, List<HashMap<String, ByteIterator>> result) {
+    RecordReader<Group> recordReader = projection.columnIO.getRecordReader(pages, new GroupRecordConverter(projection.schema), filter);
+    String[] ycsbFieldNames = projection.ycsbFieldNames;
+    for (long i = 0; i < pages.getRowCount(); i++) {
+      Group group = recordReader.read();
+      if (group == null || recordReader.shouldSkipCurrentRecord()) {
+        continue;
+      }
+      HashMap<String, ByteIterator> map = new HashMap<>();
+      for (int field = 0; field < ycsbFieldNames.length; field++) {
+        if (ycsbFieldNames[field] == null || group.getFieldRepetitionCount(field) == 0) {
+          continue;
+        }
+        byte[] value = group.getBinary(field, 0).getBytes();
+        map.put(ycsbFieldNames[field], CoreUtils.getByteIterator(value));
+      }
+      result.add(map);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  private static class Projection {
+    private final MessageType schema;
+    private final MessageColumnIO columnIO;
+    private final String[] ycsbFieldNames;
+
+    private Projection(MessageType schema) {
+      this.schema = schema;
+      this.columnIO = new ColumnIOFactory().getColumnIO(schema);
+      this.ycsbFieldNames = new String[schema.getFieldCount()];
+      for (int i = 0; i < ycsbFieldNames.length; i++) {
+        String name = schema.getFieldName(i);
+        ycsbFieldNames[i] = name.equals(Constants.KEY_FIELD_NAME) ? null : CoreUtils.getFieldName(name);
+      }
+    }
+  }
+}
@@ -0,0 +1,209 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+import java.util.Arrays;
+
+/**
+ * Columnar buffer of rows with a fixed set of fields: one {@code long[]} of keys and one {@code byte[][]} per field.
+ * Rows with a repeated key are merged through a primitive open-addressing index.
+ */
+public class InsertBuffer {
+
+  private static final int EMPTY = 0;
+
+  private final int maxCapacity;
+
+  private final int[] columnPoints;
+
+  private long[] keys;
+
+  private byte[][][] columns;
+
+  private long[] indexKeys;
+
+  private int[] indexRows;
+
+  private int rows = 0;
+
+  private int points = 0;
+
+  public InsertBuffer(int fieldCount, int initialCapacity, int maxCapacity) {
+    this.maxCapacity = Math.max(1, maxCapacity);
+    int capacity = Math.min(Math.max(1, initialCapacity), this.maxCapacity);
+    this.keys = new long[capacity];
+    this.columns = new byte[fieldCount][capacity][];
+    this.columnPoints = new int[fieldCount];
+    allocateIndex(capacity);
+  }
+
+  private static int mix(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  /**
+   * Returns the row of the key, appending a new row if the key is not buffered yet, or -1 if the buffer is full.
+   */
+  public int row(long key) {
+    int mask = indexKeys.length - 1;
+    int slot = mix(key) & mask;
+    while (indexRows[slot] != EMPTY) {
+      if (indexKeys[slot] == key) {
+        return indexRows[slot] - 1;
+      }
+      slot = (slot + 1) & mask;
+    }
+    if (rows == keys.length) {
+      if (!grow()) {
+        return -1;
+      }
+      return row(key);
+    }
+    indexKeys[slot] = key;
+    indexRows[slot] = rows + 1;
+    keys[rows] = key;
+    return rows++;
+  }
+
+  public boolean contains(long key) {
+    int mask = indexKeys.length - 1;
+    for (int slot = mix(key) & mask; indexRows[slot] != EMPTY; slot = (slot + 1) & mask) {
+      if (indexKeys[slot] == key) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public void set(int row, int field, byte[] value) {
+    if (columns[field][row] == null) {
+      columnPoints[field]++;
+      points++;
+    }
+    columns[field][row] = value;
+  }
+
+  public int rows() {
+    return rows;
+  }
+
+  public int points() {
+    return points;
+  }
+
+  public boolean isEmpty() {
+    return rows == 0;
+  }
+
+  public int fieldCount() {
+    return columns.length;
+  }
+
+  public int columnPoints(int field) {
+    return columnPoints[field];
+  }
+
+  public long key(int row) {
+    return keys[row];
+  }
+
+  public byte[] value(int row, int field) {
+    return columns[field][row];
+  }
+
+  /**
+   * Returns a copy of the buffered keys, which the caller may reorder.
+   */
+  public long[] keys() {
+    return Arrays.copyOf(keys, rows);
+  }
+
+  /**
+   * Returns a copy of the buffered values of the field, which the caller may reorder.
+   */
+  public byte[][] column(int field) {
+    return Arrays.copyOf(columns[field], rows);
+  }
+
+  /**
+   * Returns the fields with at least one buffered value.
+   */
+  public int[] nonEmptyFields() {
+    int count = 0;
+    for (int points : columnPoints) {
+      if (points > 0) {
+        count++;
+      }
+    }
+    int[] fields = new int[count];
+    for (int i = 0, index = 0; i < columnPoints.length; i++) {
+      if (columnPoints[i] > 0) {
+        fields[index++] = i;
+      }
+    }
+    return fields;
+  }
+
+  /**
+   * Packs the values of the fields column by column, as expected by {@code insertColumnRecords}.
+   */
+  public Object[] toColumns(int[] fields) {
+    Object[] valuesList = new Object[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      valuesList[i] = column(fields[i]);
+    }
+    return valuesList;
+  }
+
+  /**
+   * Packs the values of the fields row by row, as expected by {@code insertRowRecords}.
+   */
+  public Object[] toRows(int[] fields) {
+    Object[] valuesList = new Object[rows];
+    for (int row = 0; row < rows; row++) {
+      Object[] values = new Object[fields.length];
+      for (int i = 0; i < fields.length; i++) {
+        values[i] = columns[fields[i]][row];
+      }
+      valuesList[row] = values;
+    }
+    return valuesList;
+  }
+
+  public void clear() {
+    for (byte[][] column : columns) {
+      Arrays.fill(column, 0, rows, null);
+    }
+    Arrays.fill(columnPoints, 0);
+    Arrays.fill(indexRows, EMPTY);
+    rows = 0;
+    points = 0;
+  }
+
+  private boolean grow() {
+    if (keys.length >= maxCapacity) {
+      return false;
+    }
+    int capacity = (int) Math.min((long) keys.length * 2, maxCapacity);
+    keys = Arrays.copyOf(keys, capacity);
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = Arrays.copyOf(columns[i], capacity);
+    }
+    allocateIndex(capacity);
+    int mask = indexKeys.length - 1;
+    for (int row = 0; row < rows; row++) {
+      int slot = mix(keys[row]) & mask;
+      while (indexRows[slot] != EMPTY) {
+        slot = (slot + 1) & mask;
+      }
+      indexKeys[slot] = keys[row];
+      indexRows[slot] = row + 1;
+    }
+    return true;
+  }
+
+  private void allocateIndex(int capacity) {
+    int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+    indexKeys = new long[size];
+    indexRows = new int[size];
+  }
+}
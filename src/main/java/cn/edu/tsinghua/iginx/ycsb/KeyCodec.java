@@ -0,0 +1,43 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * Maps YCSB keys to the {@code long} keys of the bindings.
+ */
+public interface KeyCodec {
+
+  String CODEC_PROPERTY = "key.codec";
+  String CODEC_PROPERTY_DEFAULT = "numeric";
+  String PREFIX_PROPERTY = "key.prefix";
+  String PREFIX_PROPERTY_DEFAULT = "user";
+
+  long encode(String key);
+
+  /**
+   * Releases the codec returned by {@link #create(Properties)}.
+   */
+  default void release() throws IOException {
+  }
+
+  /**
+   * Returns the codec named by {@code key.codec}: {@code numeric} for keys of digits after {@code key.prefix}, or
+   * {@code ordered} for arbitrary keys, coded through the dictionary shared by the process and kept in
+   * {@code key.dictionary} if set.
+   */
+  static KeyCodec create(Properties properties) throws IOException {
+    String codec = properties.getProperty(CODEC_PROPERTY, CODEC_PROPERTY_DEFAULT);
+    String prefix = properties.getProperty(PREFIX_PROPERTY, PREFIX_PROPERTY_DEFAULT);
+    switch (codec.toLowerCase()) {
+      case "numeric":
+        return new NumericKeyCodec(prefix);
+      case "ordered":
+        String dictionaryPath = properties.getProperty(OrderedKeyCodec.DICTIONARY_PROPERTY, "").trim();
+        return OrderedKeyCodec.acquireShared(prefix, dictionaryPath.isEmpty() ? null : Paths.get(dictionaryPath));
+      default:
+        throw new IllegalArgumentException("unknown key codec: " + codec);
+    }
+  }
+}
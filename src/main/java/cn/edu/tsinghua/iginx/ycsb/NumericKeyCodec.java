@@ -0,0 +1,36 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+/**
+ * Codec of keys made of a prefix and a non-negative decimal number, with any zero padding. The digits are parsed in
+ * place, without a substring. Keys without the prefix are parsed from their first character.
+ */
+public class NumericKeyCodec implements KeyCodec {
+
+  public static final NumericKeyCodec DEFAULT = new NumericKeyCodec(PREFIX_PROPERTY_DEFAULT);
+
+  private final String prefix;
+
+  public NumericKeyCodec(String prefix) {
+    this.prefix = prefix;
+  }
+
+  @Override
+  public long encode(String key) {
+    int start = key.startsWith(prefix) ? prefix.length() : 0;
+    if (start == key.length()) {
+      throw new NumberFormatException("no digits in key: " + key);
+    }
+    long value = 0;
+    for (int i = start; i < key.length(); i++) {
+      int digit = key.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        throw new NumberFormatException("not a numeric key: " + key);
+      }
+      if (value > (Long.MAX_VALUE - digit) / 10) {
+        throw new NumberFormatException("key out of range: " + key);
+      }
+      value = value * 10 + digit;
+    }
+    return value;
+  }
+}
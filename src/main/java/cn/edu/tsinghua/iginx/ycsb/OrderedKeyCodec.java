@@ -0,0 +1,306 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Order-preserving codec of arbitrary keys through a dictionary of the keys seen, so that distinct keys always get
+ * distinct non-negative codes in the string order of the keys. A new key between two known keys is placed between
+ * their codes in proportion to where its characters fall between theirs, from the first character the neighbours
+ * differ in. A key before or after all known keys is placed where its first characters after {@code key.prefix} fall
+ * among all strings, and at least a bounded step away from the first or the last known key, so that keys arriving in
+ * random order and in key order both keep room between them. Encoding fails rather than reuse a code once no code is
+ * left between two neighbours.
+ * <p>
+ * The known keys are kept in sorted primitive arrays, read from {@code key.dictionary} if it exists, and the keys added
+ * since in a sorted map. The shared codec writes them all back into the file when the last client releases it, so that
+ * the run phase and other processes code the keys of the load alike. A file of bare keys, one per line, spreads their
+ * codes evenly, which leaves room for keys inserted in any order.
+ */
+public class OrderedKeyCodec implements KeyCodec {
+
+  public static final String DICTIONARY_PROPERTY = "key.dictionary";
+
+  private static final Logger logger = LoggerFactory.getLogger(OrderedKeyCodec.class);
+
+  // largest distance of a key from the first or the last known key, which leaves room for 2^26 keys inserted in order
+  private static final long MAX_STEP = 1L << 36;
+
+  private static OrderedKeyCodec shared = null;
+
+  private static int sharedReferences = 0;
+
+  private final String prefix;
+
+  private final Path dictionaryPath;
+
+  private final String[] keys;
+
+  private final long[] codes;
+
+  private final TreeMap<String, Long> added = new TreeMap<>();
+
+  // range of the characters of the keys after the prefix, the digits of the fractions placing new keys
+  private char minChar = Character.MAX_VALUE;
+
+  private char maxChar = 0;
+
+  public OrderedKeyCodec(String prefix) {
+    this(prefix, null, new String[0], new long[0]);
+  }
+
+  private OrderedKeyCodec(String prefix, Path dictionaryPath, String[] keys, long[] codes) {
+    this.prefix = prefix;
+    this.dictionaryPath = dictionaryPath;
+    this.keys = keys;
+    this.codes = codes;
+    for (String key : keys) {
+      addChars(key);
+    }
+  }
+
+  /**
+   * Returns a codec of the given keys with codes spread evenly over all non-negative {@code long}s.
+   */
+  public static OrderedKeyCodec of(String prefix, Collection<String> keys) {
+    return spread(prefix, null, keys);
+  }
+
+  private static OrderedKeyCodec spread(String prefix, Path dictionaryPath, Collection<String> keys) {
+    String[] sorted = new TreeSet<>(keys).toArray(new String[0]);
+    long[] codes = new long[sorted.length];
+    long spacing = Long.MAX_VALUE / (sorted.length + 1);
+    for (int i = 0; i < codes.length; i++) {
+      codes[i] = spacing * (i + 1);
+    }
+    return new OrderedKeyCodec(prefix, dictionaryPath, sorted, codes);
+  }
+
+  /**
+   * Reads the dictionary file: lines of {@code <code>\t<key>} as written by {@link #write()}, or lines of bare keys
+   * whose codes are then spread evenly. A missing file gives an empty dictionary.
+   */
+  public static OrderedKeyCodec read(String prefix, Path dictionaryPath) throws IOException {
+    if (!Files.exists(dictionaryPath)) {
+      return new OrderedKeyCodec(prefix, dictionaryPath, new String[0], new long[0]);
+    }
+    List<String> lines = new ArrayList<>();
+    for (String line : Files.readAllLines(dictionaryPath, StandardCharsets.UTF_8)) {
+      if (!line.isEmpty()) {
+        lines.add(line);
+      }
+    }
+    if (lines.isEmpty() || lines.get(0).indexOf('\t') < 0) {
+      return spread(prefix, dictionaryPath, lines);
+    }
+    TreeMap<String, Long> entries = new TreeMap<>();
+    for (String line : lines) {
+      int separator = line.indexOf('\t');
+      if (separator < 0) {
+        throw new IOException("line without code in " + dictionaryPath + ": " + line);
+      }
+      String key = line.substring(separator + 1);
+      if (entries.put(key, Long.parseLong(line.substring(0, separator))) != null) {
+        throw new IOException("duplicate key in " + dictionaryPath + ": " + key);
+      }
+    }
+    String[] keys = entries.keySet().toArray(new String[0]);
+    long[] codes = new long[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      codes[i] = entries.get(keys[i]);
+      if (codes[i] < 0 || (i > 0 && codes[i] <= codes[i - 1])) {
+        throw new IOException("codes in " + dictionaryPath + " are not increasing with the keys at " + keys[i]);
+      }
+    }
+    return new OrderedKeyCodec(prefix, dictionaryPath, keys, codes);
+  }
+
+  /**
+   * Returns the codec shared by all clients of the process, reading the dictionary file, if any, on first use.
+   */
+  public static synchronized OrderedKeyCodec acquireShared(String prefix, Path dictionaryPath) throws IOException {
+    if (shared == null) {
+      shared = dictionaryPath == null ? new OrderedKeyCodec(prefix) : read(prefix, dictionaryPath);
+      logger.info("code keys in order through a dictionary of {} keys", shared.keys.length);
+    } else if (!shared.prefix.equals(prefix) || !Objects.equals(shared.dictionaryPath, dictionaryPath)) {
+      throw new IllegalArgumentException("shared ordered key codec has prefix " + shared.prefix + " and dictionary "
+          + shared.dictionaryPath + ", but: " + prefix + " and " + dictionaryPath);
+    }
+    sharedReferences++;
+    return shared;
+  }
+
+  /**
+   * Releases the shared codec, writing back the dictionary if this is the last reference.
+   */
+  public static synchronized void releaseShared() throws IOException {
+    if (--sharedReferences > 0) {
+      return;
+    }
+    OrderedKeyCodec codec = shared;
+    shared = null;
+    codec.write();
+  }
+
+  @Override
+  public void release() throws IOException {
+    releaseShared();
+  }
+
+  @Override
+  public long encode(String key) {
+    int index = Arrays.binarySearch(keys, key);
+    if (index >= 0) {
+      return codes[index];
+    }
+    synchronized (added) {
+      Long known = added.get(key);
+      if (known != null) {
+        return known;
+      }
+      int insertion = -index - 1;
+      // -1 and Long.MAX_VALUE stand for no neighbour, as no code equals either
+      String lowKey = insertion == 0 ? null : keys[insertion - 1];
+      long low = insertion == 0 ? -1 : codes[insertion - 1];
+      String highKey = insertion == keys.length ? null : keys[insertion];
+      long high = insertion == keys.length ? Long.MAX_VALUE : codes[insertion];
+      Map.Entry<String, Long> lower = added.lowerEntry(key);
+      if (lower != null && lower.getValue() > low) {
+        lowKey = lower.getKey();
+        low = lower.getValue();
+      }
+      Map.Entry<String, Long> higher = added.higherEntry(key);
+      if (higher != null && higher.getValue() < high) {
+        highKey = higher.getKey();
+        high = higher.getValue();
+      }
+      addChars(key);
+      long code = between(key, lowKey, low, highKey, high);
+      added.put(key, code);
+      return code;
+    }
+  }
+
+  private long between(String key, String lowKey, long low, String highKey, long high) {
+    if (high <= low + 1) {
+      throw new IllegalStateException("no code left for key " + key + " between " + low + " and " + high
+          + ", list the keys in `" + DICTIONARY_PROPERTY + "` beforehand");
+    }
+    if (lowKey == null || highKey == null) {
+      // the same for every dictionary, as the range of characters seen may be degenerate yet
+      long target = (long) (fraction(key, start(key), (char) 0, (char) 126) * Long.MAX_VALUE);
+      if (lowKey != null) {
+        int from = commonPrefix(lowKey, key);
+        double lowFraction = fraction(lowKey, from);
+        long step = (long) ((fraction(key, from) - lowFraction) / (1 - lowFraction) * (high - low));
+        target = Math.max(target, low + Math.max(1, Math.min(step, MAX_STEP)));
+      } else if (highKey != null) {
+        int from = commonPrefix(key, highKey);
+        double highFraction = fraction(highKey, from);
+        long step = (long) ((highFraction - fraction(key, from)) / highFraction * (high - low));
+        target = Math.min(target, high - Math.max(1, Math.min(step, MAX_STEP)));
+      }
+      return Math.max(low + 1, Math.min(target, high - 1));
+    }
+    long range = high - low;
+    int from = commonPrefix(lowKey, highKey);
+    double lowFraction = fraction(lowKey, from);
+    double highFraction = fraction(highKey, from);
+    double position = (fraction(key, from) - lowFraction) / (highFraction - lowFraction);
+    // the middle when the key is not told apart from a neighbour within the weighed characters
+    long offset = position > 0 && position < 1 ? (long) (position * range) : range >>> 1;
+    return low + Math.max(1, Math.min(offset, range - 1));
+  }
+
+  private static int commonPrefix(String a, String b) {
+    int length = Math.min(a.length(), b.length());
+    int i = 0;
+    while (i < length && a.charAt(i) == b.charAt(i)) {
+      i++;
+    }
+    return i;
+  }
+
+  private int start(String key) {
+    return key.startsWith(prefix) ? prefix.length() : 0;
+  }
+
+  private void addChars(String key) {
+    for (int i = start(key); i < key.length(); i++) {
+      char c = key.charAt(i);
+      minChar = c < minChar ? c : minChar;
+      maxChar = c > maxChar ? c : maxChar;
+    }
+  }
+
+  /**
+   * Returns the characters of the key from the given one as a fraction in {@code [0, 1)}, as digits of the base given
+   * by the range of characters seen, with zero for the end of the key, so that decimal keys use the whole fraction.
+   */
+  private double fraction(String key, int from) {
+    return minChar > maxChar ? 0 : fraction(key, from, minChar, maxChar);
+  }
+
+  private static double fraction(String key, int from, char minChar, char maxChar) {
+    int base = maxChar - minChar + 2;
+    double fraction = 0;
+    double scale = 1;
+    for (int i = from; i < key.length() && scale > 0x1p-53; i++) {
+      scale /= base;
+      int digit = Math.max(0, Math.min(key.charAt(i) - minChar + 1, base - 1));
+      fraction += digit * scale;
+    }
+    return fraction;
+  }
+
+  /**
+   * Returns the number of keys in the dictionary.
+   */
+  public int size() {
+    synchronized (added) {
+      return keys.length + added.size();
+    }
+  }
+
+  /**
+   * Writes all keys with their codes into the dictionary file, if any, in key order.
+   */
+  public void write() throws IOException {
+    if (dictionaryPath == null) {
+      return;
+    }
+    if (dictionaryPath.getParent() != null) {
+      Files.createDirectories(dictionaryPath.getParent());
+    }
+    Path temporary = dictionaryPath.resolveSibling(dictionaryPath.getFileName() + ".tmp");
+    synchronized (added) {
+      TreeMap<String, Long> entries = new TreeMap<>(added);
+      for (int i = 0; i < keys.length; i++) {
+        entries.put(keys[i], codes[i]);
+      }
+      try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+        for (Map.Entry<String, Long> entry : entries.entrySet()) {
+          writer.write(entry.getValue() + "\t" + entry.getKey());
+          writer.newLine();
+        }
+      }
+      Files.move(temporary, dictionaryPath, StandardCopyOption.REPLACE_EXISTING);
+      logger.info("wrote {} keys into {}", entries.size(), dictionaryPath);
+    }
+  }
+}
@@ -0,0 +1,142 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import site.ycsb.ByteIterator;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Full scan of Parquet files that decodes their row groups in parallel on a fork-join pool shared by all clients of
+ * the process. Row groups are split into contiguous runs in key order, a few runs per worker so that workers stay busy
+ * until the end. Each run is decoded through a reader of its own for the time of the run, taken from the open readers
+ * of the file kept by the scanner, so that the footer of a file is only read by the first scans. The rows are appended
+ * in key order, or in whatever order the runs finish when unordered.
+ */
+public class ParallelParquetScanner implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(ParallelParquetScanner.class);
+
+  private static final int SPLITS_PER_WORKER = 4;
+
+  private static ForkJoinPool shared = null;
+
+  private static int sharedReferences = 0;
+
+  private final ForkJoinPool pool;
+
+  private final boolean ordered;
+
+  private final Map<Path, int[]> rowGroups = new HashMap<>();
+
+  // idle readers by file
+  private final Map<Path, Queue<IndexedParquetReader>> readers = new ConcurrentHashMap<>();
+
+  public ParallelParquetScanner(ForkJoinPool pool, boolean ordered) {
+    this.pool = pool;
+    this.ordered = ordered;
+  }
+
+  public static synchronized ForkJoinPool acquireShared(int parallelism) {
+    if (shared == null) {
+      shared = new ForkJoinPool(parallelism);
+      logger.info("decode row groups of full scans with parallelism {}", parallelism);
+    }
+    sharedReferences++;
+    return shared;
+  }
+
+  public static synchronized void releaseShared() {
+    if (--sharedReferences == 0) {
+      shared.shutdown();
+      shared = null;
+    }
+  }
+
+  /**
+   * Appends all rows of the files in turn to the result, reading only the given columns, or all columns if they are
+   * null.
+   */
+  public void scan(List<Path> files, List<String> columns, Vector<HashMap<String, ByteIterator>> result) throws IOException {
+    List<ForkJoinTask<List<HashMap<String, ByteIterator>>>> tasks = new ArrayList<>();
+    for (Path file : files) {
+      int[] order = getRowGroups(file);
+      int splits = Math.min(order.length, pool.getParallelism() * SPLITS_PER_WORKER);
+      for (int i = 0; i < splits; i++) {
+        int from = (int) ((long) order.length * i / splits);
+        int to = (int) ((long) order.length * (i + 1) / splits);
+        tasks.add(pool.submit(() -> read(file, columns, order, from, to, result)));
+      }
+    }
+    try {
+      for (ForkJoinTask<List<HashMap<String, ByteIterator>>> task : tasks) {
+        List<HashMap<String, ByteIterator>> rows = task.join();
+        if (ordered) {
+          result.addAll(rows);
+        }
+      }
+    } catch (RuntimeException e) {
+      for (ForkJoinTask<?> task : tasks) {
+        task.cancel(false);
+      }
+      throw new IOException("failed to scan " + files, e);
+    }
+  }
+
+  private int[] getRowGroups(Path file) throws IOException {
+    int[] order = rowGroups.get(file);
+    if (order == null) {
+      IndexedParquetReader reader = borrowReader(file);
+      order = reader.getRowGroupsByKey();
+      returnReader(file, reader);
+      rowGroups.put(file, order);
+    }
+    return order;
+  }
+
+  private List<HashMap<String, ByteIterator>> read(Path file, List<String> columns, int[] order, int from, int to, Vector<HashMap<String, ByteIterator>> result) throws IOException {
+    List<HashMap<String, ByteIterator>> rows = new ArrayList<>();
+    IndexedParquetReader reader = borrowReader(file);
+    try {
+      reader.read(columns, order, from, to, rows);
+    } catch (IOException | RuntimeException e) {
+      reader.close();
+      throw e;
+    }
+    returnReader(file, reader);
+    if (!ordered) {
+      result.addAll(rows);
+    }
+    return rows;
+  }
+
+  private IndexedParquetReader borrowReader(Path file) throws IOException {
+    IndexedParquetReader reader = readers.computeIfAbsent(file, k -> new ConcurrentLinkedQueue<>()).poll();
+    return reader == null ? new IndexedParquetReader(file) : reader;
+  }
+
+  private void returnReader(Path file, IndexedParquetReader reader) {
+    readers.get(file).add(reader);
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (Queue<IndexedParquetReader> queue : readers.values()) {
+      for (IndexedParquetReader reader : queue) {
+        reader.close();
+      }
+    }
+    readers.clear();
+  }
+}
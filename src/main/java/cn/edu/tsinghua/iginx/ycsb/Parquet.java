@@ -13,16 +13,20 @@ import cn.edu.tsinghua.iginx.parquet.shared.FilterRangeUtils;
 import cn.edu.tsinghua.iginx.parquet.shared.exception.StorageException;
 import cn.edu.tsinghua.iginx.thrift.DataType;
 import com.google.common.collect.Range;
+import org.apache.parquet.column.ParquetProperties;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
 import org.apache.parquet.schema.MessageType;
 import org.apache.parquet.schema.Type;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import site.ycsb.ByteIterator;
+import site.ycsb.Client;
 import site.ycsb.DB;
 import site.ycsb.DBException;
 import site.ycsb.Status;
 import site.ycsb.workloads.CoreWorkload;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -41,8 +45,39 @@ public class Parquet extends DB {
   public static final String PAGE_SIZE_DEFAULT = "8388608";
   public static final String SCAN_ALL = "parquet.scan.all";
   public static final String SCAN_ALL_DEFAULT = "false";
+  public static final String SCAN_PARALLEL = "parquet.scan.parallel";
+  public static final String SCAN_PARALLEL_DEFAULT = "false";
+  public static final String SCAN_PARALLELISM = "parquet.scan.parallelism";
+  public static final String SCAN_ORDERED = "parquet.scan.ordered";
+  public static final String SCAN_ORDERED_DEFAULT = "true";
+  public static final String READ_INDEXED = "parquet.read.indexed";
+  public static final String READ_INDEXED_DEFAULT = "false";
+  public static final String DUMP_STREAMING = "parquet.dump.streaming";
+  public static final String DUMP_STREAMING_DEFAULT = "false";
+  public static final String DUMP_MEMORY = "parquet.dump.memory";
+  public static final String DUMP_MEMORY_DEFAULT = "268435456";
+  public static final String DUMP_ROWS_PER_FILE = "parquet.dump.rows_per_file";
+  public static final String DUMP_ROWS_PER_FILE_DEFAULT = "0";
+  public static final String WRITE_COMPRESSION = "parquet.write.compression";
+  public static final String WRITE_COMPRESSION_DEFAULT = "uncompressed";
+  public static final String WRITE_DICTIONARY = "parquet.write.dictionary";
+  public static final String WRITE_DICTIONARY_DEFAULT = "true";
+  public static final String WRITE_VERSION = "parquet.write.version";
+  public static final String WRITE_VERSION_DEFAULT = "v1";
+  public static final String WRITE_KEY_BLOOM_FILTER = "parquet.write.bloom_filter";
+  public static final String WRITE_KEY_BLOOM_FILTER_DEFAULT = "false";
+  public static final String WRITE_PAGE_ROWS = "parquet.write.page_rows";
+  public static final String WRITE_PAGE_ROWS_DEFAULT = "20000";
+  public static final String MEASURE_PHASES = "parquet.measure.phases";
+  public static final String MEASURE_PHASES_DEFAULT = "false";
+  private static final String PHASE_OPEN = "PARQUET-OPEN";
+  private static final String PHASE_DECODE = "PARQUET-DECODE";
   private static final Logger logger = LoggerFactory.getLogger(Parquet.class);
-  private final DataBuffer<Long, String, Object> writeBuffer = new DataBuffer<>();
+  private DataBuffer<Long, String, Object> writeBuffer = new DataBuffer<>();
+  private long writeBufferRows = 0;
+  private long writeBufferBytes = 0;
+  private long spillThreshold;
+  private ParquetDumper dumper;
   protected Path dumpPath;
 
   protected Path readPath;
@@ -59,6 +94,38 @@ public class Parquet extends DB {
 
   protected boolean scanAll;
 
+  protected CompressionCodecName compressionCodec;
+
+  protected boolean dictionaryEncoding;
+
+  protected ParquetProperties.WriterVersion writerVersion;
+
+  protected boolean keyBloomFilter;
+
+  protected int pageRowCountLimit;
+
+  protected boolean customLayout;
+
+  protected boolean readIndexed;
+
+  protected PhaseTimer phaseTimer;
+
+  protected long rowsPerFile;
+
+  protected DatasetManifest manifest;
+
+  private final Map<Path, IndexedParquetReader> indexedReaders = new HashMap<>();
+
+  protected boolean scanParallel;
+
+  protected int scanParallelism;
+
+  protected boolean scanOrdered;
+
+  private ParallelParquetScanner parallelScanner;
+
+  protected KeyCodec keyCodec;
+
   @Override
   public void init() throws DBException {
     super.init();
@@ -77,48 +144,202 @@ public class Parquet extends DB {
       pageSize = Integer.parseInt(pageSizeString);
       String scanAllString = getProperties().getProperty(SCAN_ALL, SCAN_ALL_DEFAULT);
       scanAll = Boolean.parseBoolean(scanAllString);
+      String compressionString = getProperties().getProperty(WRITE_COMPRESSION, WRITE_COMPRESSION_DEFAULT);
+      compressionCodec = compressionString.equalsIgnoreCase("none") ? CompressionCodecName.UNCOMPRESSED : CompressionCodecName.valueOf(compressionString.toUpperCase());
+      String dictionaryString = getProperties().getProperty(WRITE_DICTIONARY, WRITE_DICTIONARY_DEFAULT);
+      dictionaryEncoding = Boolean.parseBoolean(dictionaryString);
+      String writerVersionString = getProperties().getProperty(WRITE_VERSION, WRITE_VERSION_DEFAULT);
+      writerVersion = ParquetProperties.WriterVersion.fromString(writerVersionString.toLowerCase());
+      String keyBloomFilterString = getProperties().getProperty(WRITE_KEY_BLOOM_FILTER, WRITE_KEY_BLOOM_FILTER_DEFAULT);
+      keyBloomFilter = Boolean.parseBoolean(keyBloomFilterString);
+      String pageRowsString = getProperties().getProperty(WRITE_PAGE_ROWS, WRITE_PAGE_ROWS_DEFAULT);
+      pageRowCountLimit = Integer.parseInt(pageRowsString);
+      customLayout = false;
+      for (String property : new String[]{WRITE_COMPRESSION, WRITE_DICTIONARY, WRITE_VERSION, WRITE_KEY_BLOOM_FILTER, WRITE_PAGE_ROWS}) {
+        customLayout |= getProperties().containsKey(property);
+      }
+      String readIndexedString = getProperties().getProperty(READ_INDEXED, READ_INDEXED_DEFAULT);
+      readIndexed = Boolean.parseBoolean(readIndexedString);
+      String measurePhasesString = getProperties().getProperty(MEASURE_PHASES, MEASURE_PHASES_DEFAULT);
+      phaseTimer = new PhaseTimer(Boolean.parseBoolean(measurePhasesString));
+      rowsPerFile = Long.parseLong(getProperties().getProperty(DUMP_ROWS_PER_FILE, DUMP_ROWS_PER_FILE_DEFAULT));
+      if (DatasetManifest.exists(readPath)) {
+        manifest = DatasetManifest.read(readPath);
+      }
+      String scanParallelString = getProperties().getProperty(SCAN_PARALLEL, SCAN_PARALLEL_DEFAULT);
+      scanParallel = scanAll && Boolean.parseBoolean(scanParallelString);
+      String scanParallelismString = getProperties().getProperty(SCAN_PARALLELISM, String.valueOf(Runtime.getRuntime().availableProcessors()));
+      scanParallelism = Integer.parseInt(scanParallelismString);
+      String scanOrderedString = getProperties().getProperty(SCAN_ORDERED, SCAN_ORDERED_DEFAULT);
+      scanOrdered = Boolean.parseBoolean(scanOrderedString);
+      String dumpStreamingString = getProperties().getProperty(DUMP_STREAMING, DUMP_STREAMING_DEFAULT);
+      if (Boolean.parseBoolean(dumpStreamingString)) {
+        long memory = Long.parseLong(getProperties().getProperty(DUMP_MEMORY, DUMP_MEMORY_DEFAULT));
+        // YCSB runs a single thread unless `threadcount` is set
+        int threadCount = Integer.parseInt(getProperties().getProperty(Client.THREAD_COUNT_PROPERTY, "1"));
+        spillThreshold = Math.max(1, memory / Math.max(1, threadCount));
+        dumper = ParquetDumper.acquireShared(dumpPath, getParquetSchema(), this::getWriterBuilder, rowsPerFile);
+      }
+      // acquired last, as the shared dictionary is only released by cleanup()
+      keyCodec = KeyCodec.create(getProperties());
     } catch (Exception e) {
       throw new DBException("failed to init super", e);
     }
   }
 
-  @Override
-  public void cleanup() throws DBException {
-    super.cleanup();
+  protected MessageType getParquetSchema() {
     List<Type> fields = new ArrayList<>();
     fields.add(Storer.getParquetType(Constants.KEY_FIELD_NAME, DataType.LONG, Type.Repetition.REQUIRED));
     for (int i = 0; i < fieldCount; i++) {
       fields.add(Storer.getParquetType(tableName + "." + fieldNamePrefix + i, DataType.BINARY, Type.Repetition.OPTIONAL));
     }
-    MessageType parquetSchema = new MessageType(Constants.RECORD_FIELD_NAME, fields);
-    try (Scanner<Long, Scanner<String, Object>> scanner = writeBuffer.scanRows(writeBuffer.fields(), com.google.common.collect.Range.all())) {
-      if (dumpPath.getParent() != null) {
-        Files.createDirectories(dumpPath.getParent());
+    return new MessageType(Constants.RECORD_FIELD_NAME, fields);
+  }
+
+  /**
+   * Returns the builder of dump files, with the layout of {@code parquet.write.*} only if any of them is set, so that
+   * dumps are written by the IGinX writer as before otherwise.
+   */
+  protected DumpWriter.Builder getWriterBuilder(Path path) {
+    DumpWriter.Builder builder = DumpWriter.builder(path, getParquetSchema())
+        .withPageSize(pageSize)
+        .withRowGroupSize(rowGroupSize);
+    if (!customLayout) {
+      return builder;
+    }
+    return builder
+        .withPageRowCountLimit(pageRowCountLimit)
+        .withCompressionCodec(compressionCodec)
+        .withDictionaryEncoding(dictionaryEncoding)
+        .withWriterVersion(writerVersion)
+        .withKeyBloomFilter(keyBloomFilter);
+  }
+
+  private static void write(DataBuffer<Long, String, Object> buffer, MessageType parquetSchema, RollingDumpWriter writer) throws IOException, StorageException {
+    try (Scanner<Long, Scanner<String, Object>> scanner = buffer.scanRows(buffer.fields(), Range.all())) {
+      while (scanner.iterate()) {
+        IRecord record = IParquetWriter.getRecord(parquetSchema, scanner.key(), scanner.value());
+        writer.write(scanner.key(), record);
       }
-      IParquetWriter.Builder builder = IParquetWriter.builder(dumpPath, parquetSchema).withPageSize(pageSize).withRowGroupSize(rowGroupSize);
-      try (IParquetWriter writer = builder.build()) {
-        while (scanner.iterate()) {
-          IRecord record = IParquetWriter.getRecord(parquetSchema, scanner.key(), scanner.value());
-          writer.write(record);
+    }
+  }
+
+  /**
+   * Returns the files to read for keys in {@code [start, end)}: the overlapping files of the manifest if the read path
+   * is a dataset directory, or the read path itself.
+   */
+  protected List<Path> getReadFiles(long start, long end) {
+    if (manifest == null) {
+      return Collections.singletonList(readPath);
+    }
+    return manifest.getFiles(start, end);
+  }
+
+  private void spill() throws IOException, StorageException {
+    Path runPath = dumper.newRunPath();
+    try (RollingDumpWriter writer = new RollingDumpWriter(runPath, dumper::getWriterBuilder, 0)) {
+      write(writeBuffer, dumper.getSchema(), writer);
+      dumper.addRows(writer.getRows());
+    }
+    logger.debug("spilled {} rows into {}", writeBufferRows, runPath);
+    writeBuffer = new DataBuffer<>();
+    writeBufferRows = 0;
+    writeBufferBytes = 0;
+  }
+
+  @Override
+  public void cleanup() throws DBException {
+    try {
+      closeAndDump();
+    } finally {
+      if (keyCodec != null) {
+        KeyCodec codec = keyCodec;
+        keyCodec = null;
+        try {
+          codec.release();
+        } catch (IOException e) {
+          throw new DBException("failed to write key dictionary", e);
         }
       }
+    }
+  }
+
+  private void closeAndDump() throws DBException {
+    super.cleanup();
+    for (Map.Entry<Path, IndexedParquetReader> entry : indexedReaders.entrySet()) {
+      try {
+        entry.getValue().close();
+      } catch (IOException e) {
+        throw new DBException("failed to close " + entry.getKey(), e);
+      }
+    }
+    indexedReaders.clear();
+    if (parallelScanner != null) {
+      try {
+        parallelScanner.close();
+      } catch (IOException e) {
+        throw new DBException("failed to close readers of parallel scans", e);
+      } finally {
+        parallelScanner = null;
+        ParallelParquetScanner.releaseShared();
+      }
+    }
+    if (dumper != null) {
+      try {
+        if (writeBufferRows > 0) {
+          spill();
+        }
+      } catch (Exception e) {
+        throw new DBException("failed to spill into " + dumpPath, e);
+      } finally {
+        dumper = null;
+        try {
+          ParquetDumper.releaseShared();
+        } catch (IOException e) {
+          throw new DBException("failed to dump into " + dumpPath, e);
+        }
+      }
+      return;
+    }
+    try {
+      if (dumpPath.getParent() != null) {
+        Files.createDirectories(dumpPath.getParent());
+      }
+      dump(writeBuffer);
     } catch (Exception e) {
       throw new DBException("failed to dump into " + dumpPath, e);
     }
-    logger.info("dumped into {}", dumpPath);
+  }
+
+  /**
+   * Dumps the rows inserted by this client into the dump path in key order.
+   */
+  protected void dump(DataBuffer<Long, String, Object> buffer) throws IOException, StorageException {
+    long start = System.nanoTime();
+    long rows;
+    List<Path> files;
+    try (RollingDumpWriter writer = new RollingDumpWriter(dumpPath, this::getWriterBuilder, rowsPerFile)) {
+      write(buffer, getParquetSchema(), writer);
+      rows = writer.getRows();
+      files = writer.getPaths();
+    }
+    String summary = DumpWriter.writeSummary(dumpPath, files, getWriterBuilder(dumpPath), rows, System.nanoTime() - start);
+    logger.info("dumped into {}:{}{}", dumpPath, System.lineSeparator(), summary);
   }
 
   @Override
   public Status read(String table, String key, Set<String> fields, Map<String, ByteIterator> result) {
-    return scan(table, key, 0, fields, new Vector<>(1));
+    Vector<HashMap<String, ByteIterator>> resultVector = new Vector<>(1);
+    Status status = scan(table, key, 0, fields, resultVector);
+    if (!resultVector.isEmpty()) {
+      result.putAll(resultVector.get(0));
+    }
+    return status;
   }
 
   @Override
   public Status scan(String table, String startkey, int recordcount, Set<String> fields, Vector<HashMap<String, ByteIterator>> result) {
-    if (fields != null) {
-      return Status.NOT_IMPLEMENTED;
-    }
-    long timestamp = CoreUtils.getTimestamp(startkey);
+    long timestamp = keyCodec.encode(startkey);
     long interval = recordcount;
     if (recordcount == 0) {
       interval = 1;
@@ -130,35 +351,106 @@ public class Parquet extends DB {
     return doScan(fields, result, timestamp, interval);
   }
 
+  /**
+   * Returns the parquet columns of the YCSB fields, with the key column first, or null for all columns.
+   */
+  protected List<String> getParquetColumns(Set<String> fields) {
+    if (fields == null) {
+      return null;
+    }
+    List<String> columns = new ArrayList<>(fields.size() + 1);
+    columns.add(Constants.KEY_FIELD_NAME);
+    for (String field : fields) {
+      columns.add(CoreUtils.getPath(tableName, field));
+    }
+    return columns;
+  }
+
   protected Status doScan(Set<String> fields, Vector<HashMap<String, ByteIterator>> result, long start, long interval) {
-    if (fields != null) {
-      return Status.NOT_IMPLEMENTED;
-    }
-    Filter filter = FilterRangeUtils.filterOf(Range.closedOpen(start, start + interval));
-    try (
-        IParquetReader reader = IParquetReader.builder(readPath).filter(filter).build()) {
-      MessageType parquetSchema = reader.getSchema();
-      for (IRecord record = reader.read(); record != null; record = reader.read()) {
-        HashMap<String, ByteIterator> map = new HashMap<>();
-        for (Map.Entry<Integer, Object> entry : record) {
-          String fieldName = parquetSchema.getFieldName(entry.getKey());
-          if (fieldName.equals(Constants.KEY_FIELD_NAME)) {
-            continue;
+    if (scanParallel && interval == Long.MAX_VALUE) {
+      return doParallelScan(fields, result);
+    }
+    if (readIndexed) {
+      return doIndexedScan(fields, result, start, interval);
+    }
+    long end = start + interval < start ? Long.MAX_VALUE : start + interval;
+    Filter filter = FilterRangeUtils.filterOf(Range.closedOpen(start, end));
+    for (Path file : getReadFiles(start, end)) {
+      IParquetReader.Builder builder = IParquetReader.builder(file).filter(filter);
+      if (fields != null) {
+        builder.project(new HashSet<>(getParquetColumns(fields)));
+      }
+      long phaseStart = phaseTimer.start();
+      try (
+          IParquetReader reader = builder.build()) {
+        phaseStart = phaseTimer.measure(PHASE_OPEN, phaseStart);
+        MessageType parquetSchema = reader.getSchema();
+        for (IRecord record = reader.read(); record != null; record = reader.read()) {
+          HashMap<String, ByteIterator> map = new HashMap<>();
+          for (Map.Entry<Integer, Object> entry : record) {
+            String fieldName = parquetSchema.getFieldName(entry.getKey());
+            if (fieldName.equals(Constants.KEY_FIELD_NAME)) {
+              continue;
+            }
+            String ycsbFieldName = CoreUtils.getFieldName(fieldName);
+            ByteIterator iterator = CoreUtils.getByteIterator((byte[]) entry.getValue());
+            map.put(ycsbFieldName, iterator);
           }
-          String ycsbFieldName = CoreUtils.getFieldName(fieldName);
-          ByteIterator iterator = CoreUtils.getByteIterator((byte[]) entry.getValue());
-          map.put(ycsbFieldName, iterator);
+          result.add(map);
         }
-        result.add(map);
+        phaseTimer.measure(PHASE_DECODE, phaseStart);
+      } catch (
+          Exception e) {
+        throw new RuntimeException(e);
       }
-      if (result.isEmpty()) {
-        return Status.NOT_FOUND;
+    }
+    if (result.isEmpty()) {
+      return Status.NOT_FOUND;
+    }
+    return Status.OK;
+  }
+
+  private Status doParallelScan(Set<String> fields, Vector<HashMap<String, ByteIterator>> result) {
+    try {
+      long phaseStart = phaseTimer.start();
+      if (parallelScanner == null) {
+        parallelScanner = new ParallelParquetScanner(ParallelParquetScanner.acquireShared(scanParallelism), scanOrdered);
+      }
+      parallelScanner.scan(getReadFiles(Long.MIN_VALUE, Long.MAX_VALUE), getParquetColumns(fields), result);
+      phaseTimer.measure(PHASE_DECODE, phaseStart);
+    } catch (IOException e) {
+      logger.error("failed to scan", e);
+      return Status.ERROR;
+    }
+    if (result.isEmpty()) {
+      return Status.NOT_FOUND;
+    }
+    return Status.OK;
+  }
+
+  private Status doIndexedScan(Set<String> fields, Vector<HashMap<String, ByteIterator>> result, long start, long interval) {
+    long end = start + interval < start ? Long.MAX_VALUE : start + interval;
+    try {
+      for (Path file : getReadFiles(start, end)) {
+        long phaseStart = phaseTimer.start();
+        IndexedParquetReader indexedReader = indexedReaders.get(file);
+        if (indexedReader == null) {
+          indexedReader = new IndexedParquetReader(file);
+          indexedReaders.put(file, indexedReader);
+          logger.info("indexed {} row groups of {}", indexedReader.getRowGroupCount(), file);
+          phaseStart = phaseTimer.measure(PHASE_OPEN, phaseStart);
+        }
+        indexedReader.scan(getParquetColumns(fields), start, end, result);
+        phaseTimer.measure(PHASE_DECODE, phaseStart);
       }
-      return Status.OK;
-    } catch (
-        Exception e) {
-      throw new RuntimeException(e);
+    } catch (IOException e) {
+      logger.error("failed to scan", e);
+      return Status.ERROR;
+    }
+    if (result.isEmpty()) {
+      return Status.NOT_FOUND;
     }
+    return Status.OK;
   }
 
   @Override
@@ -169,10 +461,12 @@ public class Parquet extends DB {
   @Override
   public Status insert(String table, String key, Map<String, ByteIterator> values) {
     Map<Long, Map<String, Object>> rows = new HashMap<>();
-    long timestamp = CoreUtils.getTimestamp(key);
+    long timestamp = keyCodec.encode(key);
+    long rowBytes = Long.BYTES;
     for (Map.Entry<String, ByteIterator> entry : values.entrySet()) {
       String fieldName = table + "." + entry.getKey();
-      Object value = CoreUtils.getValue(entry.getValue());
+      byte[] value = CoreUtils.getValue(entry.getValue());
+      rowBytes += value.length;
       Map<String, Object> row = rows.computeIfAbsent(timestamp, k -> new HashMap<>());
       row.put(fieldName, value);
     }
@@ -186,6 +480,16 @@ public class Parquet extends DB {
       logger.error("failed to put rows", e);
       return Status.ERROR;
     }
+    writeBufferRows++;
+    writeBufferBytes += rowBytes;
+    if (dumper != null && writeBufferBytes >= spillThreshold) {
+      try {
+        spill();
+      } catch (Exception e) {
+        logger.error("failed to spill", e);
+        return Status.ERROR;
+      }
+    }
     return Status.OK;
   }
 
@@ -0,0 +1,189 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+import cn.edu.tsinghua.iginx.parquet.io.parquet.IParquetReader;
+import cn.edu.tsinghua.iginx.parquet.io.parquet.IRecord;
+import cn.edu.tsinghua.iginx.parquet.shared.Constants;
+import org.apache.parquet.schema.MessageType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+
+/**
+ * Process-wide coordinator of a streaming dump. Client threads spill key-ordered runs into a temporary directory and
+ * the last thread to leave merges all runs into the dump, either one file or a directory of rolled files with a
+ * manifest of their key ranges.
+ */
+public class ParquetDumper {
+
+  private static final Logger logger = LoggerFactory.getLogger(ParquetDumper.class);
+
+  private static ParquetDumper shared = null;
+
+  private static int sharedReferences = 0;
+
+  private final Path dumpPath;
+
+  private final Path spillDir;
+
+  private final MessageType schema;
+
+  private final Function<Path, DumpWriter.Builder> writerBuilder;
+
+  private final long rowsPerFile;
+
+  private final List<Path> runs = new ArrayList<>();
+
+  private final long startNanos = System.nanoTime();
+
+  private long rows = 0;
+
+  private ParquetDumper(Path dumpPath, MessageType schema, Function<Path, DumpWriter.Builder> writerBuilder, long rowsPerFile) throws IOException {
+    this.dumpPath = dumpPath.toAbsolutePath();
+    this.schema = schema;
+    this.writerBuilder = writerBuilder;
+    this.rowsPerFile = rowsPerFile;
+    Files.createDirectories(this.dumpPath.getParent());
+    this.spillDir = Files.createTempDirectory(this.dumpPath.getParent(), ".spill-");
+  }
+
+  public static synchronized ParquetDumper acquireShared(Path dumpPath, MessageType schema, Function<Path, DumpWriter.Builder> writerBuilder, long rowsPerFile) throws IOException {
+    if (shared == null) {
+      shared = new ParquetDumper(dumpPath, schema, writerBuilder, rowsPerFile);
+    }
+    sharedReferences++;
+    return shared;
+  }
+
+  /**
+   * Releases the shared dumper, merging all spilled runs into the dump if this is the last reference.
+   */
+  public static synchronized void releaseShared() throws IOException {
+    if (--sharedReferences > 0) {
+      return;
+    }
+    ParquetDumper dumper = shared;
+    shared = null;
+    try {
+      dumper.merge();
+    } finally {
+      dumper.deleteSpillDir();
+    }
+  }
+
+  public MessageType getSchema() {
+    return schema;
+  }
+
+  public synchronized Path newRunPath() {
+    Path path = spillDir.resolve(String.format("run-%05d.parquet", runs.size()));
+    runs.add(path);
+    return path;
+  }
+
+  public DumpWriter.Builder getWriterBuilder(Path path) {
+    return writerBuilder.apply(path);
+  }
+
+  /**
+   * Counts rows spilled into a run.
+   */
+  public synchronized void addRows(long count) {
+    rows += count;
+  }
+
+  private void merge() throws IOException {
+    List<Path> written = new ArrayList<>();
+    for (Path run : runs) {
+      if (Files.exists(run)) {
+        written.add(run);
+      }
+    }
+    if (written.isEmpty()) {
+      logger.info("nothing is spilled, skip dumping into {}", dumpPath);
+      return;
+    }
+    if (written.size() == 1 && rowsPerFile <= 0) {
+      Files.move(written.get(0), dumpPath, StandardCopyOption.REPLACE_EXISTING);
+      logSummary(Collections.singletonList(dumpPath));
+      return;
+    }
+
+    PriorityQueue<Run> queue = new PriorityQueue<>(Comparator.comparingLong(r -> r.key));
+    RollingDumpWriter writer = new RollingDumpWriter(dumpPath, writerBuilder, rowsPerFile);
+    try {
+      for (Path path : written) {
+        Run run = new Run(IParquetReader.builder(path).build());
+        if (run.next()) {
+          queue.add(run);
+        } else {
+          run.reader.close();
+        }
+      }
+      while (!queue.isEmpty()) {
+        Run run = queue.poll();
+        writer.write(run.key, run.record);
+        if (run.next()) {
+          queue.add(run);
+        } else {
+          run.reader.close();
+        }
+      }
+    } finally {
+      for (Run run : queue) {
+        run.reader.close();
+      }
+      writer.close();
+    }
+    logger.info("merged {} runs into {} file(s) at {}", written.size(), writer.getFiles(), dumpPath);
+    logSummary(writer.getPaths());
+  }
+
+  private void logSummary(List<Path> files) throws IOException {
+    String summary = DumpWriter.writeSummary(dumpPath, files, writerBuilder.apply(dumpPath), rows, System.nanoTime() - startNanos);
+    logger.info("dumped into {}:{}{}", dumpPath, System.lineSeparator(), summary);
+  }
+
+  private void deleteSpillDir() throws IOException {
+    for (Path run : runs) {
+      Files.deleteIfExists(run);
+    }
+    Files.deleteIfExists(spillDir);
+  }
+
+  private static class Run {
+    private final IParquetReader reader;
+    private final int keyIndex;
+    private IRecord record;
+    private long key;
+
+    private Run(IParquetReader reader) {
+      this.reader = reader;
+      this.keyIndex = reader.getSchema().getFieldIndex(Constants.KEY_FIELD_NAME);
+    }
+
+    private boolean next() throws IOException {
+      record = reader.read();
+      if (record == null) {
+        return false;
+      }
+      for (Map.Entry<Integer, Object> entry : record) {
+        if (entry.getKey() == keyIndex) {
+          key = (Long) entry.getValue();
+          return true;
+        }
+      }
+      throw new IOException("record without key in spilled run");
+    }
+  }
+}
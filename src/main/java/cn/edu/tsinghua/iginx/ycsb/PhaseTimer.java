@@ -0,0 +1,36 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+import site.ycsb.measurements.Measurements;
+
+/**
+ * Records the latency of the phases inside an operation through YCSB {@link Measurements}, so that they are reported
+ * next to the operation latencies. Phases are chained: each call to {@link #measure} ends a phase and starts the next.
+ */
+public class PhaseTimer {
+
+  private final Measurements measurements;
+
+  public PhaseTimer(boolean enabled) {
+    this.measurements = enabled ? Measurements.getMeasurements() : null;
+  }
+
+  public boolean isEnabled() {
+    return measurements != null;
+  }
+
+  public long start() {
+    return measurements == null ? 0 : System.nanoTime();
+  }
+
+  /**
+   * Records the time since {@code startNanos} as the latency of the phase and returns the current time.
+   */
+  public long measure(String phase, long startNanos) {
+    if (measurements == null) {
+      return 0;
+    }
+    long now = System.nanoTime();
+    measurements.measure(phase, (int) ((now - startNanos) / 1000));
+    return now;
+  }
+}
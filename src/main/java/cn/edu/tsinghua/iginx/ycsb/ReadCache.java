@@ -0,0 +1,231 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide LRU cache of rows keyed by timestamp and bounded by an estimate of the bytes it holds. It is split into
+ * shards that are locked and evicted independently. A cached row knows either all fields of the key or only the ones
+ * that were read, so a read of a field set is a hit if the row covers it. Every write bumps the version of its shard, so
+ * that a row read before a concurrent write is not cached after it.
+ */
+public class ReadCache {
+
+  private static final Logger logger = LoggerFactory.getLogger(ReadCache.class);
+
+  private static final int ROW_OVERHEAD = 64;
+
+  private static final int FIELD_OVERHEAD = 48;
+
+  private static ReadCache shared = null;
+
+  private static int sharedReferences = 0;
+
+  private final Shard[] shards;
+
+  private final LongAdder hits = new LongAdder();
+
+  private final LongAdder misses = new LongAdder();
+
+  private final LongAdder evictions = new LongAdder();
+
+  public ReadCache(long capacity, int shardCount) {
+    if (capacity <= 0 || shardCount <= 0) {
+      throw new IllegalArgumentException("capacity and shard count should be positive, but: " + capacity + ", " + shardCount);
+    }
+    this.shards = new Shard[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shards[i] = new Shard(Math.max(1, capacity / shardCount));
+    }
+  }
+
+  public static synchronized ReadCache acquireShared(long capacity, int shardCount) {
+    if (shared == null) {
+      shared = new ReadCache(capacity, shardCount);
+    }
+    sharedReferences++;
+    return shared;
+  }
+
+  public static synchronized void releaseShared() {
+    if (--sharedReferences == 0) {
+      logger.info("read cache: {} hits, {} misses, {} evictions", shared.getHits(), shared.getMisses(), shared.getEvictions());
+      shared = null;
+    }
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  private Shard shard(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return shards[Math.floorMod((int) (h ^ (h >>> 32)), shards.length)];
+  }
+
+  /**
+   * Returns the values of the fields, or of all fields if they are null, or null if the cached row does not cover them.
+   * Fields known to have no value are left out of the result.
+   */
+  public Map<String, byte[]> get(long key, Set<String> fields) {
+    Shard shard = shard(key);
+    Map<String, byte[]> result = null;
+    synchronized (shard) {
+      Row row = shard.rows.get(key);
+      if (row != null && row.covers(fields)) {
+        if (fields == null) {
+          result = new HashMap<>(row.values);
+        } else {
+          result = new HashMap<>();
+          for (String field : fields) {
+            byte[] value = row.values.get(field);
+            if (value != null) {
+              result.put(field, value);
+            }
+          }
+        }
+      }
+    }
+    if (result == null) {
+      misses.increment();
+    } else {
+      hits.increment();
+    }
+    return result;
+  }
+
+  /**
+   * Returns the version to pass to {@link #put} for values of the key read from now on.
+   */
+  public long version(long key) {
+    Shard shard = shard(key);
+    synchronized (shard) {
+      return shard.version;
+    }
+  }
+
+  /**
+   * Caches the values read for the fields, or for all fields if they are null, unless the key may have been written
+   * since the version was taken, and returns the number of evicted rows.
+   */
+  public int put(long key, long version, Set<String> fields, Map<String, byte[]> values) {
+    Shard shard = shard(key);
+    synchronized (shard) {
+      if (shard.version != version) {
+        return 0;
+      }
+      Row row = shard.rows.get(key);
+      if (row == null) {
+        row = new Row();
+        shard.rows.put(key, row);
+        shard.size += row.size;
+      }
+      if (fields == null) {
+        row.allFields = true;
+      } else {
+        row.knownFields.addAll(fields);
+      }
+      for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+        shard.size += row.set(entry.getKey(), entry.getValue());
+      }
+      return shard.evict(key);
+    }
+  }
+
+  /**
+   * Writes the values through into the cached row of the key, if any, and returns the number of evicted rows.
+   */
+  public int update(long key, Map<String, byte[]> values) {
+    Shard shard = shard(key);
+    synchronized (shard) {
+      shard.version++;
+      Row row = shard.rows.get(key);
+      if (row == null) {
+        return 0;
+      }
+      for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+        row.knownFields.add(entry.getKey());
+        shard.size += row.set(entry.getKey(), entry.getValue());
+      }
+      return shard.evict(key);
+    }
+  }
+
+  public void invalidate(long key) {
+    Shard shard = shard(key);
+    synchronized (shard) {
+      shard.version++;
+      Row row = shard.rows.remove(key);
+      if (row != null) {
+        shard.size -= row.size;
+      }
+    }
+  }
+
+  private class Shard {
+    private final long capacity;
+    private final LinkedHashMap<Long, Row> rows = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+    private long version = 0;
+
+    private Shard(long capacity) {
+      this.capacity = capacity;
+    }
+
+    /**
+     * Evicts the least recently used rows until the shard fits, keeping the row just written.
+     */
+    private int evict(long keep) {
+      int evicted = 0;
+      Iterator<Map.Entry<Long, Row>> iterator = rows.entrySet().iterator();
+      while (size > capacity && iterator.hasNext()) {
+        Map.Entry<Long, Row> eldest = iterator.next();
+        if (eldest.getKey() == keep) {
+          continue;
+        }
+        size -= eldest.getValue().size;
+        iterator.remove();
+        evicted++;
+      }
+      evictions.add(evicted);
+      return evicted;
+    }
+  }
+
+  private static class Row {
+    private final Map<String, byte[]> values = new HashMap<>();
+    private final Set<String> knownFields = new HashSet<>();
+    private boolean allFields = false;
+    private long size = ROW_OVERHEAD;
+
+    private boolean covers(Set<String> fields) {
+      return allFields || (fields != null && knownFields.containsAll(fields));
+    }
+
+    /**
+     * Sets the value of the field and returns the change of the row size.
+     */
+    private long set(String field, byte[] value) {
+      byte[] old = values.put(field, value);
+      long delta = old == null ? FIELD_OVERHEAD + 2L * field.length() + value.length : value.length - old.length;
+      size += delta;
+      return delta;
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+import cn.edu.tsinghua.iginx.parquet.io.parquet.IRecord;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Writes records in key order into a dump: one file, or with a limit of rows per file, a directory of files that
+ * cover consecutive key ranges, described by a {@link DatasetManifest}.
+ */
+public class RollingDumpWriter implements AutoCloseable {
+
+  private final Path dumpPath;
+
+  private final Function<Path, DumpWriter.Builder> writerBuilder;
+
+  private final long rowsPerFile;
+
+  private final List<DatasetManifest.Entry> entries = new ArrayList<>();
+
+  private final List<Path> paths = new ArrayList<>();
+
+  private DumpWriter writer = null;
+
+  private String fileName = null;
+
+  private long minKey;
+
+  private long maxKey;
+
+  private long fileRows = 0;
+
+  private long rows = 0;
+
+  public RollingDumpWriter(Path dumpPath, Function<Path, DumpWriter.Builder> writerBuilder, long rowsPerFile) {
+    this.dumpPath = dumpPath;
+    this.writerBuilder = writerBuilder;
+    this.rowsPerFile = rowsPerFile;
+  }
+
+  public void write(long key, IRecord record) throws IOException {
+    if (writer == null || (rowsPerFile > 0 && fileRows >= rowsPerFile)) {
+      roll();
+    }
+    if (fileRows == 0) {
+      minKey = key;
+    }
+    maxKey = key;
+    writer.write(record);
+    fileRows++;
+    rows++;
+  }
+
+  public long getRows() {
+    return rows;
+  }
+
+  public int getFiles() {
+    return entries.size() + (writer == null ? 0 : 1);
+  }
+
+  /**
+   * Returns the data files written so far, without the manifest.
+   */
+  public List<Path> getPaths() {
+    return paths;
+  }
+
+  private void roll() throws IOException {
+    closeFile();
+    Path path = dumpPath;
+    if (rowsPerFile > 0) {
+      Files.createDirectories(dumpPath);
+      fileName = String.format("part-%05d.parquet", entries.size());
+      path = dumpPath.resolve(fileName);
+    }
+    writer = writerBuilder.apply(path).build();
+    paths.add(path);
+  }
+
+  private void closeFile() throws IOException {
+    if (writer == null) {
+      return;
+    }
+    writer.close();
+    writer = null;
+    if (rowsPerFile > 0) {
+      entries.add(new DatasetManifest.Entry(fileName, minKey, maxKey, fileRows));
+    }
+    fileRows = 0;
+  }
+
+  @Override
+  public void close() throws IOException {
+    closeFile();
+    if (rowsPerFile > 0 && !entries.isEmpty()) {
+      DatasetManifest.write(dumpPath, entries);
+    }
+  }
+}
@@ -0,0 +1,185 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+import cn.edu.tsinghua.iginx.exceptions.SessionException;
+import cn.edu.tsinghua.iginx.session.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide pool of IGinX sessions spread over one or more endpoints. Sessions are leased per operation and must be
+ * returned by closing the {@link Lease}.
+ */
+public class SessionPool implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(SessionPool.class);
+
+  private static SessionPool shared = null;
+
+  private static int sharedReferences = 0;
+
+  // the parameters the shared pool was opened with
+  private static List<Object> sharedParameters = null;
+
+  private final List<Endpoint> endpoints = new ArrayList<>();
+
+  private final Strategy strategy;
+
+  private final AtomicInteger next = new AtomicInteger();
+
+  public SessionPool(List<String> addresses, String user, String password, int size, Strategy strategy) throws SessionException {
+    if (addresses.isEmpty()) {
+      throw new IllegalArgumentException("no endpoint is given");
+    }
+    if (size < addresses.size()) {
+      throw new IllegalArgumentException("pool size " + size + " is less than endpoint count " + addresses.size());
+    }
+    this.strategy = strategy;
+    for (String address : addresses) {
+      endpoints.add(new Endpoint(address));
+    }
+    try {
+      for (int i = 0; i < size; i++) {
+        Endpoint endpoint = endpoints.get(i % endpoints.size());
+        Session session = new Session(endpoint.host, endpoint.port, user, password);
+        session.openSession();
+        endpoint.sessions.add(session);
+        endpoint.idle.add(session);
+      }
+    } catch (SessionException e) {
+      close();
+      throw e;
+    }
+    logger.info("opened {} sessions over {}", size, addresses);
+  }
+
+  /**
+   * Returns the pool shared by the process, opening it on the first call. Later calls must give the same parameters.
+   */
+  public static synchronized SessionPool acquireShared(List<String> addresses, String user, String password, int size, Strategy strategy) throws SessionException {
+    List<Object> parameters = Arrays.asList(new ArrayList<>(addresses), user, password, size, strategy);
+    if (shared == null) {
+      shared = new SessionPool(addresses, user, password, size, strategy);
+      sharedParameters = parameters;
+    } else if (!sharedParameters.equals(parameters)) {
+      throw new IllegalArgumentException(String.format("the shared pool is open with other endpoints, user, size or strategy than %d sessions over %s with %s",
+          size, addresses, strategy));
+    }
+    sharedReferences++;
+    return shared;
+  }
+
+  public static synchronized void releaseShared() {
+    if (--sharedReferences == 0) {
+      shared.close();
+      shared = null;
+      sharedParameters = null;
+    }
+  }
+
+  public Lease lease() throws InterruptedException {
+    Endpoint endpoint;
+    if (strategy == Strategy.LEAST_LOADED) {
+      endpoint = leastLoaded();
+    } else {
+      endpoint = roundRobin();
+    }
+    endpoint.leased.incrementAndGet();
+    try {
+      return new Lease(endpoint, endpoint.idle.take());
+    } catch (InterruptedException e) {
+      endpoint.leased.decrementAndGet();
+      throw e;
+    }
+  }
+
+  private Endpoint roundRobin() {
+    int offset = Math.floorMod(next.getAndIncrement(), endpoints.size());
+    for (int i = 0; i < endpoints.size(); i++) {
+      Endpoint endpoint = endpoints.get((offset + i) % endpoints.size());
+      if (!endpoint.idle.isEmpty()) {
+        return endpoint;
+      }
+    }
+    return endpoints.get(offset);
+  }
+
+  private Endpoint leastLoaded() {
+    Endpoint best = null;
+    for (Endpoint endpoint : endpoints) {
+      if (best == null || endpoint.leased.get() < best.leased.get()) {
+        best = endpoint;
+      }
+    }
+    return best;
+  }
+
+  @Override
+  public void close() {
+    for (Endpoint endpoint : endpoints) {
+      for (Session session : endpoint.sessions) {
+        try {
+          session.closeSession();
+        } catch (SessionException e) {
+          logger.error("fail to close session of {}:{}", endpoint.host, endpoint.port, e);
+        }
+      }
+      endpoint.sessions.clear();
+      endpoint.idle.clear();
+    }
+  }
+
+  public enum Strategy {
+    ROUND_ROBIN,
+    LEAST_LOADED
+  }
+
+  private static class Endpoint {
+    private final String host;
+    private final int port;
+    private final List<Session> sessions = new ArrayList<>();
+    private final BlockingQueue<Session> idle = new LinkedBlockingQueue<>();
+    private final AtomicInteger leased = new AtomicInteger();
+
+    private Endpoint(String address) {
+      int index = address.lastIndexOf(':');
+      if (index < 0) {
+        throw new IllegalArgumentException("endpoint should be host:port, but: " + address);
+      }
+      this.host = address.substring(0, index).trim();
+      this.port = Integer.parseInt(address.substring(index + 1).trim());
+    }
+  }
+
+  public static class Lease implements AutoCloseable {
+    private final Endpoint endpoint;
+    private final Session session;
+
+    private Lease(Endpoint endpoint, Session session) {
+      this.endpoint = endpoint;
+      this.session = session;
+    }
+
+    public static Lease pinned(Session session) {
+      return new Lease(null, session);
+    }
+
+    public Session session() {
+      return session;
+    }
+
+    @Override
+    public void close() {
+      if (endpoint != null) {
+        endpoint.idle.add(session);
+        endpoint.leased.decrementAndGet();
+      }
+    }
+  }
+}
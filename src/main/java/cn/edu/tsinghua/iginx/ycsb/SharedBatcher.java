@@ -0,0 +1,283 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import site.ycsb.Status;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Insert buffer shared by all client threads of the process and sharded by key range, so that every flushed batch holds
+ * keys of one range, ideally one IGinX fragment, from all threads. Each shard is an {@link InsertBuffer} under its own
+ * lock. A shard is handed to the flush threads once it holds {@code size} points, or by a timer once its oldest row is
+ * older than the interval, and at most {@code inflight} handed over shards may wait for or be in flight at once.
+ */
+public class SharedBatcher {
+
+  private static final Logger logger = LoggerFactory.getLogger(SharedBatcher.class);
+
+  private static SharedBatcher shared = null;
+
+  private static int sharedReferences = 0;
+
+  private final long[] boundaries;
+
+  private final Shard[] shards;
+
+  private final int fieldCount;
+
+  private final int size;
+
+  private final long intervalNanos;
+
+  private final Sink sink;
+
+  private final ExecutorService flushers;
+
+  private final ScheduledExecutorService timer;
+
+  private final Semaphore inflight;
+
+  private final int maxInflight;
+
+  private final Queue<InsertBuffer> freeBuffers = new ConcurrentLinkedQueue<>();
+
+  private final AtomicReference<Exception> error = new AtomicReference<>();
+
+  private final LongAdder batches = new LongAdder();
+
+  private final LongAdder points = new LongAdder();
+
+  /**
+   * Writes a batch of rows to IGinX.
+   */
+  public interface Sink {
+    void insert(InsertBuffer buffer) throws Exception;
+  }
+
+  /**
+   * Sets the values of a row in the buffer of its shard.
+   */
+  public interface RowWriter {
+    Status write(InsertBuffer buffer, int row);
+  }
+
+  /**
+   * @param boundaries the ascending first keys of all shards but the first
+   */
+  public SharedBatcher(long[] boundaries, int fieldCount, int size, long intervalNanos, int threads, int maxInflight, Sink sink) {
+    if (size < 1 || intervalNanos <= 0 || threads < 1 || maxInflight < 1) {
+      throw new IllegalArgumentException(String.format("invalid size %d, interval %d ns, threads %d or inflight %d", size, intervalNanos, threads, maxInflight));
+    }
+    for (int i = 1; i < boundaries.length; i++) {
+      if (boundaries[i] <= boundaries[i - 1]) {
+        throw new IllegalArgumentException("boundaries are not ascending: " + Arrays.toString(boundaries));
+      }
+    }
+    this.boundaries = boundaries.clone();
+    this.fieldCount = fieldCount;
+    this.size = size;
+    this.intervalNanos = intervalNanos;
+    this.sink = sink;
+    this.maxInflight = maxInflight;
+    this.inflight = new Semaphore(maxInflight);
+    this.shards = new Shard[boundaries.length + 1];
+    for (int i = 0; i < shards.length; i++) {
+      shards[i] = new Shard(newBuffer());
+    }
+    AtomicInteger index = new AtomicInteger();
+    this.flushers = Executors.newFixedThreadPool(threads, r -> {
+      Thread thread = new Thread(r, "iginx-batcher-" + index.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "iginx-batcher-timer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long period = Math.max(1, intervalNanos / 2);
+    timer.scheduleAtFixedRate(this::flushExpired, period, period, TimeUnit.NANOSECONDS);
+  }
+
+  public static synchronized SharedBatcher acquireShared(long[] boundaries, int fieldCount, int size, long intervalNanos, int threads, int maxInflight, Sink sink) {
+    if (shared == null) {
+      shared = new SharedBatcher(boundaries, fieldCount, size, intervalNanos, threads, maxInflight, sink);
+      logger.info("batch inserts of all threads in {} shards of {} points", boundaries.length + 1, size);
+    }
+    sharedReferences++;
+    return shared;
+  }
+
+  /**
+   * Releases the shared batcher, flushing all shards and waiting for the flush threads if this is the last reference.
+   */
+  public static synchronized void releaseShared() throws Exception {
+    if (--sharedReferences > 0) {
+      return;
+    }
+    SharedBatcher batcher = shared;
+    shared = null;
+    batcher.close();
+  }
+
+  /**
+   * Returns the first error of an asynchronous flush since the last call, if any.
+   */
+  public Exception takeError() {
+    return error.getAndSet(null);
+  }
+
+  private InsertBuffer newBuffer() {
+    InsertBuffer buffer = freeBuffers.poll();
+    if (buffer == null) {
+      buffer = new InsertBuffer(fieldCount, Math.max(1, size / Math.max(1, fieldCount)), size);
+    }
+    return buffer;
+  }
+
+  private int shardOf(long key) {
+    int index = Arrays.binarySearch(boundaries, key);
+    return index >= 0 ? index + 1 : -index - 1;
+  }
+
+  /**
+   * Writes the row into the buffer of its shard, handing the buffer over to be flushed once it is full. Blocks while
+   * the maximum number of buffers is in flight.
+   */
+  public Status put(long key, RowWriter writer) throws InterruptedException {
+    Shard shard = shards[shardOf(key)];
+    InsertBuffer full = null;
+    Status status;
+    synchronized (shard) {
+      int row = shard.buffer.row(key);
+      if (row < 0) {
+        full = shard.swap();
+        row = shard.buffer.row(key);
+      }
+      if (shard.buffer.rows() == 1) {
+        shard.startNanos = System.nanoTime();
+      }
+      status = writer.write(shard.buffer, row);
+      if (full == null && shard.buffer.points() >= size) {
+        full = shard.swap();
+      }
+    }
+    if (full != null) {
+      dispatch(full);
+    }
+    return status;
+  }
+
+  /**
+   * Writes out the rows buffered for the shard of the key and waits until all handed over buffers are written, so that
+   * a following delete of the key is applied after its inserts.
+   */
+  public void flush(long key) throws Exception {
+    Shard shard = shards[shardOf(key)];
+    InsertBuffer full = null;
+    synchronized (shard) {
+      if (shard.buffer.contains(key)) {
+        full = shard.swap();
+      }
+    }
+    if (full != null) {
+      write(full);
+    }
+    inflight.acquire(maxInflight);
+    inflight.release(maxInflight);
+  }
+
+  private void flushExpired() {
+    long now = System.nanoTime();
+    for (Shard shard : shards) {
+      InsertBuffer full = null;
+      synchronized (shard) {
+        if (!shard.buffer.isEmpty() && now - shard.startNanos >= intervalNanos) {
+          full = shard.swap();
+        }
+      }
+      if (full != null) {
+        try {
+          dispatch(full);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  private void dispatch(InsertBuffer full) throws InterruptedException {
+    inflight.acquire();
+    flushers.execute(() -> {
+      try {
+        write(full);
+      } catch (Exception e) {
+        if (!error.compareAndSet(null, e)) {
+          logger.error("fail to insert", e);
+        }
+      } finally {
+        inflight.release();
+      }
+    });
+  }
+
+  private void write(InsertBuffer full) throws Exception {
+    try {
+      sink.insert(full);
+      batches.increment();
+      points.add(full.points());
+    } finally {
+      full.clear();
+      freeBuffers.add(full);
+    }
+  }
+
+  private void close() throws Exception {
+    timer.shutdown();
+    timer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    for (Shard shard : shards) {
+      InsertBuffer full;
+      synchronized (shard) {
+        full = shard.buffer.isEmpty() ? null : shard.swap();
+      }
+      if (full != null) {
+        dispatch(full);
+      }
+    }
+    flushers.shutdown();
+    flushers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    long count = batches.sum();
+    logger.info("inserted {} batches of {} points on average", count, count == 0 ? 0 : points.sum() / count);
+    Exception e = takeError();
+    if (e != null) {
+      throw e;
+    }
+  }
+
+  private class Shard {
+    private InsertBuffer buffer;
+    private long startNanos;
+
+    private Shard(InsertBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    private InsertBuffer swap() {
+      InsertBuffer full = buffer;
+      buffer = newBuffer();
+      return full;
+    }
+  }
+}
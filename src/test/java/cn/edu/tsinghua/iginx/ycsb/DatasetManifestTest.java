@@ -0,0 +1,78 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DatasetManifestTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path dir;
+
+  private DatasetManifest manifest;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = folder.getRoot().toPath();
+    DatasetManifest.write(dir, Arrays.asList(
+        new DatasetManifest.Entry("part-0", 0, 99, 100),
+        new DatasetManifest.Entry("part-1", 100, 199, 100),
+        new DatasetManifest.Entry("part-2", 300, 399, 100)));
+    assertTrue(DatasetManifest.exists(dir));
+    manifest = DatasetManifest.read(dir);
+  }
+
+  private List<Path> files(String... names) {
+    List<Path> files = new ArrayList<>();
+    for (String name : names) {
+      files.add(dir.resolve(name));
+    }
+    return files;
+  }
+
+  @Test
+  public void testReadsAllFiles() {
+    assertEquals(3, manifest.size());
+    assertEquals(files("part-0", "part-1", "part-2"), manifest.getFiles());
+    assertEquals(files("part-0", "part-1", "part-2"), manifest.getFiles(Long.MIN_VALUE, Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testRangeAtFileBoundaries() {
+    assertEquals(files("part-0"), manifest.getFiles(99, 100));
+    assertEquals(files("part-1"), manifest.getFiles(100, 101));
+    assertEquals(files("part-0"), manifest.getFiles(0, 100));
+    assertEquals(files("part-0", "part-1"), manifest.getFiles(99, 101));
+    assertEquals(files("part-2"), manifest.getFiles(399, 400));
+  }
+
+  @Test
+  public void testRangeOutsideFiles() {
+    assertEquals(Collections.emptyList(), manifest.getFiles(-10, 0));
+    assertEquals(Collections.emptyList(), manifest.getFiles(200, 300));
+    assertEquals(files("part-2"), manifest.getFiles(200, 301));
+    assertEquals(Collections.emptyList(), manifest.getFiles(400, Long.MAX_VALUE));
+  }
+
+  @Test(expected = IOException.class)
+  public void testRejectsOverlappingRanges() throws IOException {
+    Files.write(dir.resolve(DatasetManifest.FILE_NAME),
+        Arrays.asList("file,min_key,max_key,rows", "part-0,0,100,101", "part-1,100,199,100"), StandardCharsets.UTF_8);
+    DatasetManifest.read(dir);
+  }
+}
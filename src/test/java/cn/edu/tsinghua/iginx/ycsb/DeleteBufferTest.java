@@ -0,0 +1,60 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeleteBufferTest {
+
+  private static DeleteBuffer of(long... keys) {
+    DeleteBuffer buffer = new DeleteBuffer(1);
+    for (long key : keys) {
+      buffer.add(key);
+    }
+    return buffer;
+  }
+
+  @Test
+  public void testAdjacentKeysMerge() {
+    assertArrayEquals(new long[]{3, 6}, of(5, 3, 4).toRanges());
+  }
+
+  @Test
+  public void testRepeatedKeysMerge() {
+    assertArrayEquals(new long[]{3, 4, 7, 9}, of(7, 3, 8, 3, 7, 8).toRanges());
+  }
+
+  @Test
+  public void testGapsSplitRanges() {
+    assertArrayEquals(new long[]{-2, -1, 0, 2, 10, 11, 12, 13}, of(12, 0, 10, 1, -2).toRanges());
+  }
+
+  @Test
+  public void testEmpty() {
+    DeleteBuffer buffer = of();
+    assertTrue(buffer.isEmpty());
+    assertEquals(0, buffer.ageNanos());
+    assertArrayEquals(new long[0], buffer.toRanges());
+  }
+
+  @Test
+  public void testGrowsAndClears() {
+    DeleteBuffer buffer = of();
+    for (long key = 999; key >= 0; key--) {
+      buffer.add(key * 2);
+    }
+    assertEquals(1000, buffer.size());
+    long[] ranges = buffer.toRanges();
+    assertEquals(2000, ranges.length);
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i * 2, ranges[i * 2]);
+      assertEquals(i * 2 + 1, ranges[i * 2 + 1]);
+    }
+    buffer.clear();
+    assertTrue(buffer.isEmpty());
+    buffer.add(1);
+    assertArrayEquals(new long[]{1, 2}, buffer.toRanges());
+  }
+}
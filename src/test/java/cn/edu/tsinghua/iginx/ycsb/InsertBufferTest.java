@@ -0,0 +1,106 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InsertBufferTest {
+
+  private static byte[] value(int i) {
+    return new byte[]{(byte) i};
+  }
+
+  @Test
+  public void testRepeatedKeyMergesIntoOneRow() {
+    InsertBuffer buffer = new InsertBuffer(2, 4, 4);
+    int row = buffer.row(42);
+    buffer.set(row, 0, value(1));
+    assertEquals(row, buffer.row(42));
+    buffer.set(row, 0, value(2));
+    buffer.set(row, 1, value(3));
+    assertEquals(1, buffer.rows());
+    assertEquals(2, buffer.points());
+    assertArrayEquals(value(2), buffer.value(row, 0));
+    assertTrue(buffer.contains(42));
+    assertFalse(buffer.contains(43));
+  }
+
+  @Test
+  public void testCollidingKeysGetTheirOwnRows() {
+    InsertBuffer buffer = new InsertBuffer(1, 1024, 1024);
+    // enough keys for probes to run over occupied slots of the index
+    for (int i = 0; i < 1000; i++) {
+      long key = (long) i << 32;
+      assertEquals(i, buffer.row(key));
+      buffer.set(i, 0, value(i));
+    }
+    for (int i = 0; i < 1000; i++) {
+      long key = (long) i << 32;
+      assertEquals(i, buffer.row(key));
+      assertEquals(key, buffer.key(i));
+    }
+    assertEquals(1000, buffer.rows());
+  }
+
+  @Test
+  public void testGrowsUpToMaxCapacity() {
+    InsertBuffer buffer = new InsertBuffer(1, 1, 5);
+    for (int i = 0; i < 5; i++) {
+      int row = buffer.row(i * 10);
+      assertEquals(i, row);
+      buffer.set(row, 0, value(i));
+    }
+    assertEquals(-1, buffer.row(50));
+    assertEquals(2, buffer.row(20));
+    for (int i = 0; i < 5; i++) {
+      assertTrue(buffer.contains(i * 10));
+      assertArrayEquals(value(i), buffer.value(i, 0));
+    }
+  }
+
+  @Test
+  public void testReadsAreCopies() {
+    InsertBuffer buffer = new InsertBuffer(1, 2, 2);
+    buffer.set(buffer.row(7), 0, value(1));
+    buffer.set(buffer.row(3), 0, value(2));
+    long[] keys = buffer.keys();
+    byte[][] column = buffer.column(0);
+    assertArrayEquals(new long[]{7, 3}, keys);
+    keys[0] = 3;
+    keys[1] = 7;
+    column[0] = value(9);
+    assertArrayEquals(new long[]{7, 3}, buffer.keys());
+    assertArrayEquals(value(1), buffer.value(0, 0));
+  }
+
+  @Test
+  public void testNonEmptyFieldsAndPacking() {
+    InsertBuffer buffer = new InsertBuffer(3, 2, 2);
+    buffer.set(buffer.row(1), 2, value(1));
+    buffer.set(buffer.row(2), 0, value(2));
+    int[] fields = buffer.nonEmptyFields();
+    assertArrayEquals(new int[]{0, 2}, fields);
+    Object[] columns = buffer.toColumns(fields);
+    assertNull(((byte[][]) columns[0])[0]);
+    assertArrayEquals(value(2), ((byte[][]) columns[0])[1]);
+    Object[] rows = buffer.toRows(fields);
+    assertArrayEquals(value(1), (byte[]) ((Object[]) rows[0])[1]);
+    assertEquals(1, buffer.columnPoints(2));
+  }
+
+  @Test
+  public void testClear() {
+    InsertBuffer buffer = new InsertBuffer(1, 2, 2);
+    buffer.set(buffer.row(1), 0, value(1));
+    buffer.clear();
+    assertTrue(buffer.isEmpty());
+    assertEquals(0, buffer.points());
+    assertFalse(buffer.contains(1));
+    assertEquals(0, buffer.row(2));
+    assertNull(buffer.value(0, 0));
+  }
+}
@@ -0,0 +1,54 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class NumericKeyCodecTest {
+
+  private final KeyCodec codec = new NumericKeyCodec("user");
+
+  @Test
+  public void testPrefix() {
+    assertEquals(42, codec.encode("user42"));
+    assertEquals(42, codec.encode("42"));
+    assertEquals(42, new NumericKeyCodec("").encode("42"));
+    assertEquals(7, new NumericKeyCodec("key").encode("key7"));
+  }
+
+  @Test
+  public void testZeroPadding() {
+    assertEquals(42, codec.encode("user0000000042"));
+    assertEquals(0, codec.encode("user000"));
+  }
+
+  @Test
+  public void testRange() {
+    assertEquals(Long.MAX_VALUE, codec.encode("user" + Long.MAX_VALUE));
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void testRejectsNonDigits() {
+    codec.encode("user4x2");
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void testRejectsOtherPrefix() {
+    codec.encode("key42");
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void testRejectsSign() {
+    codec.encode("user-1");
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void testRejectsPrefixOnly() {
+    codec.encode("user");
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void testRejectsOverflow() {
+    codec.encode("user9223372036854775808");
+  }
+}
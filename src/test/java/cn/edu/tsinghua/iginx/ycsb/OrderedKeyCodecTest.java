@@ -0,0 +1,169 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OrderedKeyCodecTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final KeyCodec codec = new OrderedKeyCodec("user");
+
+  @Test
+  public void testShortKeysKeepOrder() {
+    String[] keys = {"user", "user0", "userA", "userAA", "userAB", "userB", "userZZZZZZ", "usera", "userz"};
+    long[] codes = new long[keys.length];
+    for (int i = keys.length - 1; i >= 0; i--) {
+      codes[i] = codec.encode(keys[i]);
+    }
+    for (int i = 1; i < keys.length; i++) {
+      assertTrue(keys[i - 1] + " < " + keys[i], codes[i - 1] < codes[i]);
+    }
+  }
+
+  @Test
+  public void testNonNegative() {
+    assertTrue(codec.encode("user\u007f\u007f\u007f\u007f\u007f\u007f") >= 0);
+    assertTrue(codec.encode("user\uffff\uffff\uffff\uffff\uffff\uffff\uffff") >= 0);
+    assertTrue(codec.encode("") >= 0);
+  }
+
+  @Test
+  public void testSameKeySameCode() {
+    String key = "user6284781860667377211";
+    long code = codec.encode(key);
+    codec.encode("user6284781860667377210");
+    codec.encode("user6284781860667377212");
+    assertEquals(code, codec.encode(new String(key.toCharArray())));
+  }
+
+  @Test
+  public void testLongKeysSharingPrefixAreDistinctAndOrdered() {
+    List<String> keys = new ArrayList<>();
+    for (int i = 0; i < 100000; i++) {
+      keys.add(String.format("user%012d", i));
+    }
+    List<String> shuffled = new ArrayList<>(keys);
+    Collections.shuffle(shuffled, new Random(0));
+    for (String key : shuffled) {
+      codec.encode(key);
+    }
+    assertDistinctAndOrdered(codec, keys);
+  }
+
+  @Test
+  public void testKeysInsertedInOrder() {
+    List<String> keys = new ArrayList<>();
+    for (int i = 0; i < 100000; i++) {
+      keys.add(String.format("user%012d", i));
+    }
+    for (String key : keys) {
+      codec.encode(key);
+    }
+    List<String> reversed = new ArrayList<>();
+    for (int i = 0; i < 100000; i++) {
+      reversed.add(String.format("key%012d", i));
+    }
+    Collections.reverse(reversed);
+    for (String key : reversed) {
+      codec.encode(key);
+    }
+    Collections.reverse(reversed);
+    assertDistinctAndOrdered(codec, keys);
+    assertDistinctAndOrdered(codec, reversed);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testFailsWhenNoCodeIsLeft() {
+    KeyCodec dense = OrderedKeyCodec.of("user", Arrays.asList("a", "b"));
+    // halves the gap between a and b until no code is left
+    StringBuilder key = new StringBuilder("a");
+    for (int i = 0; i < 64; i++) {
+      key.append('z');
+      dense.encode(key.toString());
+    }
+  }
+
+  @Test
+  public void testDictionaryIsWrittenAndRead() throws IOException {
+    Path path = folder.getRoot().toPath().resolve("keys");
+    OrderedKeyCodec written = OrderedKeyCodec.read("user", path);
+    List<String> keys = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      keys.add("user" + Integer.toHexString(i * 7919));
+    }
+    long[] codes = new long[keys.size()];
+    for (int i = 0; i < codes.length; i++) {
+      codes[i] = written.encode(keys.get(i));
+    }
+    written.write();
+
+    OrderedKeyCodec read = OrderedKeyCodec.read("user", path);
+    assertEquals(keys.size(), read.size());
+    for (int i = 0; i < codes.length; i++) {
+      assertEquals(codes[i], read.encode(keys.get(i)));
+    }
+    assertEquals(keys.size(), read.size());
+  }
+
+  @Test
+  public void testBareKeysAreSpread() throws IOException {
+    Path path = folder.getRoot().toPath().resolve("keys");
+    Files.write(path, Arrays.asList("userc", "usera", "userb"), StandardCharsets.UTF_8);
+    OrderedKeyCodec read = OrderedKeyCodec.read("user", path);
+    assertDistinctAndOrdered(read, Arrays.asList("usera", "userb", "userc"));
+    assertEquals(Long.MAX_VALUE / 4, read.encode("usera"));
+  }
+
+  @Test
+  public void testSharedFromProperties() throws IOException {
+    Path path = folder.getRoot().toPath().resolve("keys");
+    Properties properties = new Properties();
+    properties.setProperty(KeyCodec.CODEC_PROPERTY, "ordered");
+    properties.setProperty(OrderedKeyCodec.DICTIONARY_PROPERTY, path.toString());
+    KeyCodec first = KeyCodec.create(properties);
+    KeyCodec second = KeyCodec.create(properties);
+    long code = first.encode("userkey");
+    assertEquals(code, second.encode("userkey"));
+    first.release();
+    assertTrue(!Files.exists(path));
+    second.release();
+    assertEquals(code, OrderedKeyCodec.read("user", path).encode("userkey"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownCodec() throws IOException {
+    Properties properties = new Properties();
+    properties.setProperty(KeyCodec.CODEC_PROPERTY, "unknown");
+    KeyCodec.create(properties);
+  }
+
+  private static void assertDistinctAndOrdered(KeyCodec codec, List<String> sortedKeys) {
+    Set<Long> codes = new HashSet<>();
+    long previous = -1;
+    for (String key : sortedKeys) {
+      long code = codec.encode(key);
+      assertTrue(key, code > previous);
+      assertTrue(key, codes.add(code));
+      previous = code;
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package cn.edu.tsinghua.iginx.ycsb;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ReadCacheTest {
+
+  // one field of 100 bytes makes a row of about 214 bytes, so that two rows fit in a single shard
+  private final ReadCache cache = new ReadCache(500, 1);
+
+  private static Map<String, byte[]> row(byte value) {
+    byte[] bytes = new byte[100];
+    Arrays.fill(bytes, value);
+    return Collections.singletonMap("f", bytes);
+  }
+
+  private int put(long key, byte value) {
+    return cache.put(key, cache.version(key), null, row(value));
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() {
+    assertEquals(0, put(1, (byte) 1));
+    assertEquals(0, put(2, (byte) 2));
+    assertNotNull(cache.get(1, null));
+    assertEquals(1, put(3, (byte) 3));
+    assertNull(cache.get(2, null));
+    assertNotNull(cache.get(1, null));
+    assertNotNull(cache.get(3, null));
+    assertEquals(1, cache.getEvictions());
+    assertEquals(3, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void testKeepsTheRowJustWritten() {
+    ReadCache tiny = new ReadCache(1, 1);
+    assertEquals(0, tiny.put(1, tiny.version(1), null, row((byte) 1)));
+    assertNotNull(tiny.get(1, null));
+    assertEquals(1, tiny.put(2, tiny.version(2), null, row((byte) 2)));
+    assertNull(tiny.get(1, null));
+  }
+
+  @Test
+  public void testWriteInvalidatesOlderVersion() {
+    long version = cache.version(1);
+    cache.update(1, row((byte) 2));
+    assertEquals(0, cache.put(1, version, null, row((byte) 1)));
+    assertNull(cache.get(1, null));
+
+    put(1, (byte) 1);
+    version = cache.version(1);
+    cache.invalidate(1);
+    cache.put(1, version, null, row((byte) 1));
+    assertNull(cache.get(1, null));
+  }
+
+  @Test
+  public void testUpdateWritesThrough() {
+    put(1, (byte) 1);
+    cache.update(1, row((byte) 2));
+    assertArrayEquals(row((byte) 2).get("f"), cache.get(1, null).get("f"));
+  }
+
+  @Test
+  public void testPartialRowCoversOnlyItsFields() {
+    Set<String> fields = new HashSet<>(Arrays.asList("f", "g"));
+    cache.put(1, cache.version(1), fields, row((byte) 1));
+    Map<String, byte[]> values = cache.get(1, fields);
+    assertEquals(Collections.singleton("f"), values.keySet());
+    assertNotNull(cache.get(1, Collections.singleton("g")));
+    assertNull(cache.get(1, Collections.singleton("h")));
+    assertNull(cache.get(1, null));
+  }
+}